@@ -2,22 +2,39 @@
  * File: NameSurfer.java
  * ---------------------------
  * The goal of this program is to draw graphs which show name rank popularity 
- * for 11 decades.  The user can enter a name to search.  If the name appears 
- * in the database as being in the top 1,000 popular names for any decade a
- * graph of the popularity will be displayed. 
+ * for every decade of the data file.  The user can enter a name to search.
+ * If the name appears in the database as being in the top 1,000 popular
+ * names for any decade a graph of the popularity will be displayed. 
  */
 
 import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.List;
 import javax.swing.JButton;
 import javax.swing.JLabel;
+import javax.swing.JMenuItem;
+import javax.swing.JPopupMenu;
 import javax.swing.JTextField;
+import javax.swing.SwingUtilities;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import acm.program.Program;
 
 @SuppressWarnings("serial")
 public class NameSurfer extends Program implements NameSurferConstants {
-    
+
+    /* The number of names offered under the text field */
+    private static final int SUGGESTIONS = 8;
+
+    /* The number of look-alike names plotted by the Similar button */
+    private static final int SIMILAR_NAMES = 3;
+
     private JTextField name;
+    private JPopupMenu suggestions;
+    private NameSurferSearch search;
+    private NameSurferSimilarity similarity;
     private JButton graph;
+    private JButton similar;
     private JButton clear;
     private NameSurferGraph nameGraph;
     private NameSurferDataBase records;
@@ -30,34 +47,154 @@ public class NameSurfer extends Program implements NameSurferConstants {
         add(new JLabel("Name"), SOUTH);
         name = new JTextField(10);
         graph = new JButton("Graph");
+        similar = new JButton("Similar");
         clear = new JButton("Clear");
         add(name, SOUTH);
         add(graph, SOUTH);
+        add(similar, SOUTH);
         add(clear, SOUTH);
         addActionListeners();
         name.addActionListener(this);
         nameGraph = new NameSurferGraph();
         add(nameGraph);
+        NameSurferMetrics.install();
         records = new NameSurferDataBase("names-data.txt");
+        nameGraph.setAxis(records.getAxis());
+        search = new NameSurferSearch(records.getIndex());
+        createSuggestions();
+        watchRecords();
+    }
+
+    /**
+     * Reloads the database whenever the data file changes.  The new search
+     * index is built on the watcher thread, and the display is switched over
+     * to the new data on the event thread, graphing the same names again.
+     */
+    private void watchRecords() {
+        records.addReloadListener(new Runnable() {
+            public void run() {
+                final NameSurferSearch reloaded = new NameSurferSearch(
+                        records.getIndex());
+                SwingUtilities.invokeLater(new Runnable() {
+                    public void run() {
+                        search = reloaded;
+                        similarity = null;
+                        List<NameSurferEntry> shown = nameGraph.getEntries();
+                        nameGraph.clear();
+                        nameGraph.setAxis(records.getAxis());
+                        for (NameSurferEntry entry : shown) {
+                            graphName(entry.getName());
+                        }
+                    }
+                });
+            }
+        });
+        records.startWatching();
+    }
+
+    /**
+     * Creates the list of suggestions shown under the text field, which is
+     * refreshed on every keystroke.
+     */
+    private void createSuggestions() {
+        suggestions = new JPopupMenu();
+        suggestions.setFocusable(false);
+        name.getDocument().addDocumentListener(new DocumentListener() {
+            public void insertUpdate(DocumentEvent e) {
+                showSuggestions();
+            }
+
+            public void removeUpdate(DocumentEvent e) {
+                showSuggestions();
+            }
+
+            public void changedUpdate(DocumentEvent e) {
+            }
+        });
+    }
+
+    /**
+     * Shows the names that best match the text typed so far.  Clicking one
+     * of them graphs it.
+     */
+    private void showSuggestions() {
+        suggestions.setVisible(false);
+        suggestions.removeAll();
+        String text = name.getText().trim();
+        if (text.isEmpty()) {
+            return;
+        }
+        for (final String match : search.suggest(text, SUGGESTIONS)) {
+            JMenuItem item = new JMenuItem(match);
+            item.addActionListener(new ActionListener() {
+                public void actionPerformed(ActionEvent e) {
+                    name.setText(match);
+                    suggestions.setVisible(false);
+                    graphName(match);
+                }
+            });
+            suggestions.add(item);
+        }
+        if (suggestions.getComponentCount() > 0 && name.isShowing()) {
+            suggestions.pack();
+            suggestions.show(name, 0, name.getHeight());
+            SwingUtilities.invokeLater(new Runnable() {
+                public void run() {
+                    name.requestFocusInWindow();
+                }
+            });
+        }
     }
     
     /**
      * When the Graph button is clicked, if the name entered in the text field
      * exists in the data base, calls the addEntry method to print out the 
-     * graph.  When the clear button is clicked calls the method to remove all
-     * graphs from disply.  
+     * graph.  When the Similar button is clicked, also graphs the names whose
+     * popularity curves look most like it.  When the clear button is clicked
+     * calls the method to remove all graphs from disply.  
      */
     public void actionPerformed(ActionEvent e)  {
         String cmd = e.getActionCommand();
-        String text = name.getText().toUpperCase();
         if (cmd.equals("Graph")) {
-            NameSurferEntry entry = records.findEntry(text);
-            if (entry != null) {
-                nameGraph.addEntry(entry);
-            }
+            suggestions.setVisible(false);
+            graphName(name.getText());
+        }
+        if (cmd.equals("Similar")) {
+            suggestions.setVisible(false);
+            graphSimilar(name.getText());
         }
         if (cmd.equals("Clear")) {
             nameGraph.clear();
         }
     }
+
+    /**
+     * Adds the graph of the given name and of the names whose popularity
+     * curves are closest to it.
+     */
+    private void graphSimilar(String text) {
+        NameSurferEntry entry = records.findEntry(text);
+        if (entry == null) {
+            return;
+        }
+        if (similarity == null) {
+            similarity = new NameSurferSimilarity(records.getIndex());
+        }
+        nameGraph.addEntry(entry);
+        for (NameSurferEntry match : similarity.findSimilar(entry,
+                SIMILAR_NAMES, NameSurferSimilarity.Distance.CORRELATION)) {
+            nameGraph.addEntry(match);
+        }
+    }
+
+    /**
+     * Adds the graph of the given name to the display if the name exists in
+     * the data base.
+     */
+    private void graphName(String text) {
+        NameSurferEntry entry = records.findEntry(text);
+        if (entry != null) {
+            nameGraph.addEntry(entry);
+        }
+    }
 }
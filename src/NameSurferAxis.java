@@ -0,0 +1,130 @@
+/*
+ * File: NameSurferAxis.java
+ * -------------------------
+ * This class describes the time axis and rank range of a names dataset:
+ * the year of the first column of ranks, the number of years each column
+ * covers, the number of columns, and the largest rank.  The bundled data
+ * file has one column per decade from START_DECADE, NDECADES columns and
+ * ranks up to MAX_RANK, which is the DEFAULT axis.  Other files describe
+ * their own axis in a header line before the first name, such as
+ *
+ *     # start=1880 step=1 count=144 maxrank=10000
+ *
+ * Any value left out of the header keeps its default.
+ */
+
+public class NameSurferAxis implements NameSurferConstants {
+
+    /** The largest rank that can be stored */
+    public static final int RANK_LIMIT = 0xFFFF;
+
+    /** The axis of the bundled data file */
+    public static final NameSurferAxis DEFAULT = new NameSurferAxis(
+            START_DECADE, 10, NDECADES, MAX_RANK);
+
+    private final int start;
+    private final int step;
+    private final int count;
+    private final int maxRank;
+
+    /**
+     * Creates a new axis.
+     * @param start, int, the year of the first column.
+     * @param step, int, the number of years each column covers.
+     * @param count, int, the number of columns.
+     * @param maxRank, int, the largest rank.
+     */
+    public NameSurferAxis(int start, int step, int count, int maxRank) {
+        if (step < 1 || count < 2 || maxRank < 1 || maxRank > RANK_LIMIT) {
+            throw new IllegalArgumentException("Bad axis: start=" + start
+                    + " step=" + step + " count=" + count + " maxrank="
+                    + maxRank);
+        }
+        this.start = start;
+        this.step = step;
+        this.count = count;
+        this.maxRank = maxRank;
+    }
+
+    /**
+     * Creates an axis from a header line of the form
+     * "# start=1880 step=1 count=144 maxrank=10000".
+     */
+    public static NameSurferAxis parse(String header) {
+        int start = DEFAULT.start;
+        int step = DEFAULT.step;
+        int count = DEFAULT.count;
+        int maxRank = DEFAULT.maxRank;
+        for (String field : header.replaceFirst("^\\s*#", "").trim()
+                .split("\\s+")) {
+            if (field.isEmpty()) {
+                continue;
+            }
+            int equals = field.indexOf('=');
+            if (equals < 0) {
+                throw new IllegalArgumentException("Bad header field: " + field);
+            }
+            String key = field.substring(0, equals).toLowerCase();
+            int value = Integer.parseInt(field.substring(equals + 1));
+            if (key.equals("start")) {
+                start = value;
+            } else if (key.equals("step")) {
+                step = value;
+            } else if (key.equals("count")) {
+                count = value;
+            } else if (key.equals("maxrank")) {
+                maxRank = value;
+            } else {
+                throw new IllegalArgumentException("Unknown header field: "
+                        + key);
+            }
+        }
+        return new NameSurferAxis(start, step, count, maxRank);
+    }
+
+    /** Returns the year of the first column. */
+    public int getStart() {
+        return start;
+    }
+
+    /** Returns the number of years each column covers. */
+    public int getStep() {
+        return step;
+    }
+
+    /** Returns the number of columns. */
+    public int getCount() {
+        return count;
+    }
+
+    /** Returns the largest rank. */
+    public int getMaxRank() {
+        return maxRank;
+    }
+
+    /** Returns the first year covered by the given column. */
+    public int yearOf(int column) {
+        return start + column * step;
+    }
+
+    public boolean equals(Object o) {
+        if (!(o instanceof NameSurferAxis)) {
+            return false;
+        }
+        NameSurferAxis other = (NameSurferAxis) o;
+        return start == other.start && step == other.step
+                && count == other.count && maxRank == other.maxRank;
+    }
+
+    public int hashCode() {
+        return ((start * 31 + step) * 31 + count) * 31 + maxRank;
+    }
+
+    /**
+     * Returns the axis in the form used by the header line.
+     */
+    public String toString() {
+        return "# start=" + start + " step=" + step + " count=" + count
+                + " maxrank=" + maxRank;
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * File: NameSurferBenchmark.java
+ * ------------------------------
+ * This program times the paths that matter for performance: loading the
+ * database, looking names up, parsing a data line, and redrawing the graph
+ * with many entries.  Each benchmark is run until the JIT has settled and
+ * then timed over several samples, and the mean time per operation is
+ * printed with its spread, so that a change can be compared with the code
+ * before it.
+ *
+ * Each argument is a data file, or a number of names for which a synthetic
+ * file is made with NameSurferDataGenerator, so scaling curves can be
+ * drawn from one run:
+ *
+ *     java -Djava.awt.headless=true NameSurferBenchmark names-data.txt 10000 1000000
+ *
+ * The graph benchmarks need no screen; they draw on a canvas that is never
+ * shown.
+ *
+ * This is not a JMH benchmark, although JMH was what was asked for.  The
+ * project has no Maven or Gradle build: it is compiled straight against
+ * acm.jar, which is not published to any repository.  A JMH module would
+ * have to bring in a build file, acm.jar as a local file dependency, and
+ * the JMH annotation processor, none of which the project has.  This
+ * harness does what JMH would do for these paths with only the JDK: it
+ * warms each benchmark up, picks a number of calls that fills each
+ * sample, times several samples, and keeps every result alive so the JIT
+ * can't drop the work.  Unlike JMH it does not start a fresh JVM for each
+ * benchmark, so a benchmark can be affected by what the JIT learned from
+ * the ones run before it; check a small difference with a few runs.
+ */
+
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import javax.swing.SwingUtilities;
+
+public class NameSurferBenchmark implements NameSurferConstants {
+
+    /* The number of untimed and timed samples of each benchmark */
+    private static final int WARMUP_SAMPLES = 5;
+    private static final int SAMPLES = 10;
+
+    /* The time each sample should take, in nanoseconds */
+    private static final long SAMPLE_NANOS = 200000000L;
+
+    /* The numbers of entries the graph is redrawn with */
+    private static final int[] GRAPH_ENTRIES = { 1, 10, 50, 200, 1000 };
+
+    /* The number of names looked up by the lookup benchmarks */
+    private static final int LOOKUP_KEYS = 4096;
+
+    /**
+     * One benchmark: does the operation the given number of times and
+     * returns a value computed from the results, so that the JIT can't
+     * optimize the work away.
+     */
+    private interface Operation {
+        public long run(int times);
+    }
+
+    /* Keeps the results of every benchmark alive */
+    private static long sink;
+
+    /**
+     * Runs a benchmark and prints the mean time per operation.
+     */
+    private static void measure(String name, Operation operation) {
+        int times = 1;
+        while (true) {
+            long start = System.nanoTime();
+            sink += operation.run(times);
+            long elapsed = System.nanoTime() - start;
+            if (elapsed > SAMPLE_NANOS / 10 || times >= 1 << 30) {
+                times = (int) Math.max(1, Math.min(1 << 30,
+                        (long) times * SAMPLE_NANOS / Math.max(elapsed, 1)));
+                break;
+            }
+            times *= 10;
+        }
+        for (int i = 0; i < WARMUP_SAMPLES; i++) {
+            sink += operation.run(times);
+        }
+        double[] perOp = new double[SAMPLES];
+        double mean = 0;
+        for (int i = 0; i < SAMPLES; i++) {
+            long start = System.nanoTime();
+            sink += operation.run(times);
+            perOp[i] = (double) (System.nanoTime() - start) / times;
+            mean += perOp[i] / SAMPLES;
+        }
+        double variance = 0;
+        for (double t : perOp) {
+            variance += (t - mean) * (t - mean) / (SAMPLES - 1);
+        }
+        System.out.printf("%-40s %14s/op  +- %s%n", name, format(mean),
+                format(Math.sqrt(variance)));
+    }
+
+    private static String format(double nanos) {
+        if (nanos >= 1e9) {
+            return String.format("%.2f s", nanos / 1e9);
+        }
+        if (nanos >= 1e6) {
+            return String.format("%.2f ms", nanos / 1e6);
+        }
+        if (nanos >= 1e3) {
+            return String.format("%.2f us", nanos / 1e3);
+        }
+        return String.format("%.1f ns", nanos);
+    }
+
+    /**
+     * Runs every benchmark on one data file.
+     */
+    private static void benchmark(final String filename) {
+        System.out.println("== " + filename);
+        measure("load", new Operation() {
+            public long run(int times) {
+                long size = 0;
+                for (int i = 0; i < times; i++) {
+                    size += new NameSurferDataBase(filename).getIndex().size();
+                }
+                return size;
+            }
+        });
+        measure("load, one thread", new Operation() {
+            public long run(int times) {
+                long size = 0;
+                for (int i = 0; i < times; i++) {
+                    size += new NameSurferDataBase(filename, 1).getIndex()
+                            .size();
+                }
+                return size;
+            }
+        });
+        final NameSurferDataBase records = new NameSurferDataBase(filename);
+        NameSurferIndex index = records.getIndex();
+        Random random = new Random(42);
+        final String[] hits = new String[LOOKUP_KEYS];
+        final String[] misses = new String[LOOKUP_KEYS];
+        final String[] lines = new String[LOOKUP_KEYS];
+        for (int i = 0; i < LOOKUP_KEYS; i++) {
+            int row = random.nextInt(index.size());
+            hits[i] = index.nameAt(row).toUpperCase();
+            misses[i] = hits[i] + "Q";
+            StringBuilder line = new StringBuilder(index.nameAt(row));
+            for (int j = 0; j < index.getAxis().getCount(); j++) {
+                line.append(' ').append(index.rankAt(row, j));
+            }
+            lines[i] = line.toString();
+        }
+        measure("findEntry, hit", new Operation() {
+            public long run(int times) {
+                long found = 0;
+                for (int i = 0; i < times; i++) {
+                    found += records.findEntry(hits[i & (LOOKUP_KEYS - 1)])
+                            .getRank(0);
+                }
+                return found;
+            }
+        });
+        measure("findEntry, miss", new Operation() {
+            public long run(int times) {
+                long found = 0;
+                for (int i = 0; i < times; i++) {
+                    if (records.findEntry(misses[i & (LOOKUP_KEYS - 1)])
+                            == null) {
+                        found++;
+                    }
+                }
+                return found;
+            }
+        });
+        measure("NameSurferEntry(line)", new Operation() {
+            public long run(int times) {
+                long sum = 0;
+                for (int i = 0; i < times; i++) {
+                    sum += new NameSurferEntry(lines[i & (LOOKUP_KEYS - 1)],
+                            records.getAxis()).getRank(0);
+                }
+                return sum;
+            }
+        });
+        runOnEventThread(new Runnable() {
+            public void run() {
+                benchmarkGraph(records);
+            }
+        });
+    }
+
+    /**
+     * Times redrawing the graph with more and more entries.  This runs on
+     * the event thread, like every redraw in the program, so that the
+     * graph's own scheduled redraws can't run at the same time.
+     */
+    private static void benchmarkGraph(NameSurferDataBase records) {
+        NameSurferIndex index = records.getIndex();
+        for (int n : GRAPH_ENTRIES) {
+            if (n > index.size()) {
+                break;
+            }
+            final NameSurferGraph graph = new NameSurferGraph();
+            graph.setSize(APPLICATION_WIDTH, APPLICATION_HEIGHT);
+            graph.setAxis(records.getAxis());
+            for (int row = 0; row < n; row++) {
+                graph.addEntry(index.entryAt(row));
+            }
+            measure("NameSurferGraph.update(), " + n + " entries",
+                    new Operation() {
+                        public long run(int times) {
+                            for (int i = 0; i < times; i++) {
+                                graph.update();
+                            }
+                            return graph.getElementCount();
+                        }
+                    });
+        }
+    }
+
+    private static void runOnEventThread(Runnable task) {
+        try {
+            SwingUtilities.invokeAndWait(task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (InvocationTargetException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Runs the benchmarks.
+     * @param args, data files, or numbers of names to make synthetic data
+     * files for.  With no arguments the bundled data file is used.
+     */
+    public static void main(String[] args) {
+        List<String> files = new ArrayList<String>();
+        if (args.length == 0) {
+            files.add(NAMES_DATA_FILE);
+        }
+        for (String arg : args) {
+            if (arg.matches("\\d+")) {
+                int size = Integer.parseInt(arg);
+                File file = new File(System.getProperty("java.io.tmpdir"),
+                        "names-" + size + ".txt");
+                if (!file.exists()) {
+                    new NameSurferDataGenerator(size, NameSurferAxis.DEFAULT,
+                            size).write(file.getPath());
+                }
+                files.add(file.getPath());
+            } else {
+                files.add(arg);
+            }
+        }
+        for (String file : files) {
+            benchmark(file);
+        }
+        if (sink == 42) {
+            System.out.println();
+        }
+    }
+}
@@ -17,13 +17,13 @@ public interface NameSurferConstants {
 /** The name of the file containing the data */
 	public static final String NAMES_DATA_FILE = "names-data.txt";
 
-/** The first decade in the database */
+/** The first decade in a data file without an axis header */
 	public static final int START_DECADE = 1900;
 
-/** The number of decades */
+/** The number of decades in a data file without an axis header */
 	public static final int NDECADES = 11;
 
-/** The maximum rank in the database */
+/** The maximum rank in a data file without an axis header */
 	public static final int MAX_RANK = 1000;
 
 /** The number of pixels to reserve at the top and bottom */
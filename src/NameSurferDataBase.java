@@ -1,9 +1,3 @@
-import java.io.BufferedReader;
-import java.io.FileReader;
-import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
-
 /*
  * File: NameSurferDataBase.java
  * -----------------------------
@@ -12,47 +6,422 @@ import java.util.Map;
  * the only public method makes it possible to look up a
  * name and get back the corresponding NameSurferEntry.
  * Names are matched independent of case, so that "Eric"
- * and "ERIC" are the same names.
+ * and "ERIC" are the same names.  The database can also
+ * list the most popular names of a decade, the names in a
+ * range of ranks, and the names that rose or fell the most,
+ * and sort or filter the names by statistics of their ranks.
+ *
+ * The database can watch its file and load it again when it changes.  A
+ * reload builds a complete new index on a background thread and then
+ * publishes it with a single reference swap, so lookups never wait for a
+ * reload and never see a half-built index.  Entries handed out before a
+ * reload keep showing the data they were read from.
  */
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import acm.util.ErrorException;
+
 public class NameSurferDataBase implements NameSurferConstants {
 
-    private Map<String, String> records = new HashMap<String, String>();
+    /*
+     * How long the file must stay unchanged before it is reloaded, so that a
+     * file being copied in is read once, after the copy.
+     */
+    private static final int SETTLE_MILLIS = 250;
+
+    private AtomicReference<Generation> current =
+            new AtomicReference<Generation>();
+    private String filename;
+    private int parallelism;
+    private List<Runnable> reloadListeners = new CopyOnWriteArrayList<Runnable>();
+    private Thread watcher;
+    private WatchService watchService;
+    private final Object reloadLock = new Object();
+
+    /* Reload metrics */
+    private volatile int reloads;
+    private volatile int failedReloads;
+    private volatile long lastReloadMillis;
+    private volatile int lastSizeChange;
+    private volatile String lastFailure;
 
     /**
      * Creates a new NameSurferDataBase and initializes it using the data in the
-     * specified file. The constructor throws an error exception if the
-     * requested file does not exist or if an error occurs as the file is being
-     * read.
+     * specified file. The file may be either a text data file or a binary
+     * snapshot written by NameSurferSnapshot. The constructor throws an error
+     * exception if the requested file does not exist, if an error occurs as
+     * the file is being read, or if a line of the file is malformed.  The file
+     * is parsed on as many threads as there are processors.
      */
     public NameSurferDataBase(String filename) {
+        this(filename, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a new NameSurferDataBase from the specified file, parsing it on
+     * at most the given number of threads.  A parallelism of 1 loads the file
+     * on the calling thread.  The contents of the database do not depend on
+     * the parallelism.  A snapshot is never parsed: it is mapped into memory
+     * and looked up in place.
+     */
+    public NameSurferDataBase(String filename, int parallelism) {
+        this.filename = filename;
+        this.parallelism = parallelism;
+        long start = NameSurferMetrics.start();
+        current.set(new Generation(read(filename, parallelism)));
+        NameSurferMetrics.recordSince(NameSurferMetrics.LOAD, start);
+    }
+
+    /**
+     * Creates a NameSurferDataBase over records that have already been
+     * loaded, such as one partition of a NameSurferPartitionedDataBase.
+     * Such a database has no file and can't be reloaded.
+     */
+    public NameSurferDataBase(NameSurferIndex records) {
+        current.set(new Generation(records));
+    }
+
+    private static NameSurferIndex read(String filename, int parallelism) {
+        ByteBuffer data = NameSurferParser.map(filename);
+        if (NameSurferSnapshot.isSnapshot(data)) {
+            return new NameSurferSnapshot(data, filename);
+        }
+        return NameSurferParser.load(data, filename, parallelism);
+    }
+
+    /**
+     * Returns the index holding the records of this database.  After a
+     * reload this is a different index, so callers that keep an index should
+     * listen for reloads.
+     */
+    public NameSurferIndex getIndex() {
+        return current.get().records;
+    }
+
+    /**
+     * Returns the time axis of the data file.
+     */
+    public NameSurferAxis getAxis() {
+        return getIndex().getAxis();
+    }
+
+    /**
+     * Returns the NameSurferEntry associated with this name, if one exists. If
+     * the name does not appear in the database, this method returns null.
+     * Case does not matter.  A database read from a text file returns the
+     * same object for a name until it is reloaded; one read from a snapshot
+     * makes a new view each time, so that its heap stays flat.
+     */
+    public NameSurferEntry findEntry(CharSequence name) {
+        long start = NameSurferMetrics.start();
+        NameSurferIndex records = getIndex();
+        int row = records.find(name);
+        NameSurferEntry entry = (row < 0) ? null : records.entryAt(row);
+        if (start != 0) {
+            NameSurferMetrics.recordSince(NameSurferMetrics.FIND_ENTRY, start);
+            if (entry == null) {
+                NameSurferMetrics.count(NameSurferMetrics.LOOKUP_MISSES);
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Reads the file again and, if it loads without error, replaces the
+     * records of the database with it.  Lookups made while the file is read
+     * are answered from the old records.  Reload listeners are run on the
+     * calling thread once the new records are in place.  An error leaves the
+     * old records in place and is thrown to the caller.  Reloads are done one
+     * at a time: a reload asked for while another is running, such as a
+     * manual one while the watcher is reloading, waits for it to finish and
+     * then reads the file again, so the last file read is the one published.
+     */
+    public void reload() {
+        if (filename == null) {
+            throw new ErrorException("This database has no file to reload");
+        }
+        synchronized (reloadLock) {
+            long start = System.nanoTime();
+            NameSurferIndex records;
+            try {
+                records = read(filename, parallelism);
+            } catch (ErrorException e) {
+                failedReloads++;
+                lastFailure = e.getMessage();
+                throw e;
+            }
+            Generation old = current.getAndSet(new Generation(records));
+            lastReloadMillis = (System.nanoTime() - start) / 1000000;
+            if (NameSurferMetrics.enabled()) {
+                NameSurferMetrics.LOAD.record(System.nanoTime() - start);
+            }
+            lastSizeChange = records.size() - old.records.size();
+            reloads++;
+            for (Runnable listener : reloadListeners) {
+                listener.run();
+            }
+        }
+    }
+
+    /**
+     * Adds a listener that is run after every successful reload.  Listeners
+     * run on the thread that did the reload, which is the watcher thread for
+     * reloads triggered by a change to the file, before the next reload can
+     * start.
+     */
+    public void addReloadListener(Runnable listener) {
+        reloadListeners.add(listener);
+    }
+
+    public void removeReloadListener(Runnable listener) {
+        reloadListeners.remove(listener);
+    }
+
+    /**
+     * Starts watching the file, reloading the database on a background
+     * thread whenever the file is changed or replaced.  A file that fails to
+     * load, for example because it is still being written, leaves the old
+     * records in place and is counted as a failed reload.
+     */
+    public synchronized void startWatching() {
+        if (filename == null) {
+            throw new ErrorException("This database has no file to watch");
+        }
+        if (watcher != null) {
+            return;
+        }
+        final File file = new File(filename).getAbsoluteFile();
         try {
-            BufferedReader bf = new BufferedReader(new FileReader(filename));
+            watchService = FileSystems.getDefault().newWatchService();
+            file.getParentFile().toPath().register(watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            throw new ErrorException("Can't watch " + filename + ": "
+                    + e.getMessage());
+        }
+        final WatchService service = watchService;
+        watcher = new Thread(new Runnable() {
+            public void run() {
+                watch(service, file.toPath().getFileName());
+            }
+        }, "NameSurferDataBase watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
 
+    /**
+     * Stops watching the file.
+     */
+    public synchronized void stopWatching() {
+        if (watcher == null) {
+            return;
+        }
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            // The watcher thread stops either way.
+        }
+        watcher.interrupt();
+        watcher = null;
+        watchService = null;
+    }
+
+    /**
+     * Waits for changes to the file and reloads it once it has stopped
+     * changing for SETTLE_MILLIS.
+     */
+    private void watch(WatchService service, Path name) {
+        try {
             while (true) {
-                String line = bf.readLine();
-                if (line == null) {
-                    break;
+                if (!changed(service.take(), name)) {
+                    continue;
+                }
+                while (true) {
+                    WatchKey key = service.poll(SETTLE_MILLIS,
+                            TimeUnit.MILLISECONDS);
+                    if (key == null) {
+                        break;
+                    }
+                    changed(key, name);
+                }
+                try {
+                    reload();
+                } catch (ErrorException e) {
+                    // Counted by reload; the old records stay in place.
                 }
-                NameSurferEntry ns = new NameSurferEntry(line);
-                String name = ns.getName().toUpperCase();
-                records.put(name, line);
             }
-            bf.close();
-        } catch (IOException e) {
-            e.printStackTrace();
+        } catch (InterruptedException e) {
+            // Stopped by stopWatching.
+        } catch (ClosedWatchServiceException e) {
+            // Stopped by stopWatching.
         }
     }
 
     /**
-     * Returns the NameSurferEntry associated with this name, if one exists. If
-     * the name does not appear in the database, this method returns null.
+     * Returns true if any of the events of the key are about the watched
+     * file, and makes the key ready for more events.
+     */
+    private static boolean changed(WatchKey key, Path name) {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (name.equals(event.context())) {
+                changed = true;
+            }
+        }
+        key.reset();
+        return changed;
+    }
+
+    /**
+     * Returns the number of successful reloads.
+     */
+    public int getReloadCount() {
+        return reloads;
+    }
+
+    /**
+     * Returns the number of reloads that failed and left the old records in
+     * place.
      */
-    public NameSurferEntry findEntry(String name) {
-        if (records.containsKey(name)) {
-            NameSurferEntry entry = new NameSurferEntry(records.get(name));
-            return entry;
+    public int getFailedReloadCount() {
+        return failedReloads;
+    }
+
+    /**
+     * Returns how long the last successful reload took to read the file, in
+     * milliseconds.
+     */
+    public long getLastReloadMillis() {
+        return lastReloadMillis;
+    }
+
+    /**
+     * Returns the number of records gained by the last successful reload,
+     * which is negative if records were lost.
+     */
+    public int getLastSizeChange() {
+        return lastSizeChange;
+    }
+
+    /**
+     * Returns the message of the last failed reload, or null if none failed.
+     */
+    public String getLastReloadFailure() {
+        return lastFailure;
+    }
+
+    /**
+     * Returns the k most popular names in the given decade, most popular
+     * first.  The decade is the number of decades since START_DECADE.
+     */
+    public List<NameSurferEntry> topNames(int decade, int k) {
+        return current.get().getDecadeIndex().topNames(decade, k);
+    }
+
+    /**
+     * Returns every name whose rank in the given decade is between low and
+     * high, inclusive, most popular first.  For example, the names in the
+     * top 100 of the 1950s are namesInRange(5, 1, 100).
+     */
+    public List<NameSurferEntry> namesInRange(int decade, int low, int high) {
+        return current.get().getDecadeIndex().namesInRange(decade, low, high);
+    }
+
+    /**
+     * Returns the k names that climbed the most places between two decades,
+     * biggest climb first.
+     */
+    public List<NameSurferEntry> biggestRises(int from, int to, int k) {
+        return current.get().getDecadeIndex().biggestRises(from, to, k);
+    }
+
+    /**
+     * Returns the k names that fell the most places between two decades,
+     * biggest fall first.
+     */
+    public List<NameSurferEntry> biggestFalls(int from, int to, int k) {
+        return current.get().getDecadeIndex().biggestFalls(from, to, k);
+    }
+
+    /**
+     * Returns the statistics of every name in the database, such as the best
+     * rank each name reached.
+     */
+    public NameSurferStatistics getStatistics() {
+        return getIndex().getStatistics();
+    }
+
+    /**
+     * Returns the k names with the largest value of the given statistic,
+     * largest first.  For example, the names that grew the most popular
+     * over the whole axis are topByStatistic(Statistic.SLOPE, 10).
+     */
+    public List<NameSurferEntry> topByStatistic(
+            NameSurferStatistics.Statistic statistic, int k) {
+        NameSurferIndex records = getIndex();
+        int[] rows = records.getStatistics().sortedBy(statistic);
+        int count = Math.min(k, rows.length);
+        List<NameSurferEntry> result = new ArrayList<NameSurferEntry>(count);
+        for (int i = rows.length - 1; i >= rows.length - count; i--) {
+            result.add(records.entryAt(rows[i]));
+        }
+        return result;
+    }
+
+    /**
+     * Returns every name whose value of the given statistic is between low
+     * and high, inclusive, smallest value first.  For example, the names
+     * that reached the top 10 at some point are
+     * namesBetween(Statistic.PEAK_RANK, 1, 10).
+     */
+    public List<NameSurferEntry> namesBetween(
+            NameSurferStatistics.Statistic statistic, double low, double high) {
+        NameSurferIndex records = getIndex();
+        int[] rows = records.getStatistics().rowsBetween(statistic, low, high);
+        List<NameSurferEntry> result = new ArrayList<NameSurferEntry>(
+                rows.length);
+        for (int row : rows) {
+            result.add(records.entryAt(row));
+        }
+        return result;
+    }
+
+    /**
+     * One loaded version of the file: the records and the indexes built over
+     * them.  A generation never changes once it is published.
+     */
+    private static class Generation {
+        private final NameSurferIndex records;
+        private NameSurferDecadeIndex decades;
+
+        Generation(NameSurferIndex records) {
+            this.records = records;
+        }
+
+        /**
+         * Returns the decade index, building it the first time it is needed
+         * so that opening a snapshot stays cheap.
+         */
+        synchronized NameSurferDecadeIndex getDecadeIndex() {
+            if (decades == null) {
+                decades = new NameSurferDecadeIndex(records);
+            }
+            return decades;
         }
-        return null;
     }
 }
@@ -0,0 +1,176 @@
+/*
+ * File: NameSurferDataGenerator.java
+ * ----------------------------------
+ * This program writes a synthetic data file in the same format as
+ * names-data.txt, with any number of names, so that loading and lookups can
+ * be measured on files much larger than the bundled one.  The output only
+ * depends on the arguments, so a file can be made again anywhere.
+ *
+ * Names are made of syllables, one name per number, so they are all
+ * different.  In every column the ranks 1 to the largest rank go to
+ * different names, and a name's rank moves a little from one column to
+ * the next, so the curves look like real popularity curves rather than
+ * noise.  A header line describing the axis is written only when the axis
+ * is not the one of the bundled file.
+ *
+ *     java NameSurferDataGenerator big.txt 1000000 [columns] [largest rank]
+ */
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Random;
+import acm.util.ErrorException;
+
+public class NameSurferDataGenerator implements NameSurferConstants {
+
+    private static final String CONSONANTS = "BDFGHJKLMNPRSTVZ";
+    private static final String VOWELS = "AEIOUY";
+
+    /* The number of places a name moves between columns */
+    private static final int DRIFT = 7;
+
+    private NameSurferAxis axis;
+    private int size;
+    private long seed;
+    private long a;
+    private long inverse;
+    private long b;
+
+    /**
+     * Creates a generator of data files with the given number of names over
+     * the given axis.
+     */
+    public NameSurferDataGenerator(int size, NameSurferAxis axis, long seed) {
+        this.size = size;
+        this.axis = axis;
+        this.seed = seed;
+    }
+
+    /**
+     * Writes the data file.
+     */
+    public void write(String filename) {
+        try {
+            Writer out = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(filename), "US-ASCII"), 1 << 16);
+            try {
+                write(out);
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            throw new ErrorException("Can't write " + filename + ": "
+                    + e.getMessage());
+        }
+    }
+
+    private void write(Writer out) throws IOException {
+        if (!axis.equals(NameSurferAxis.DEFAULT)) {
+            out.write(axis.toString());
+            out.write('\n');
+        }
+        chooseOrder();
+        StringBuilder line = new StringBuilder();
+        for (int row = 0; row < size; row++) {
+            line.setLength(0);
+            appendName(line, row);
+            for (int j = 0; j < axis.getCount(); j++) {
+                line.append(' ').append(rankOf(row, j));
+            }
+            line.append('\n');
+            out.write(line.toString());
+        }
+    }
+
+    /**
+     * Picks the order in which names are ranked.  Rank r of column j goes
+     * to row (a * (r + j * DRIFT) + b) mod size, with a prime to size, so
+     * every rank of a column goes to a different row, and a name ranked r
+     * in one column is ranked r - DRIFT in the next.
+     */
+    private void chooseOrder() {
+        Random random = new Random(seed);
+        a = 1 + random.nextInt(Math.max(size - 1, 1));
+        while (gcd(a, size) != 1) {
+            a++;
+        }
+        inverse = inverse(a, size);
+        b = random.nextInt(Math.max(size, 1));
+    }
+
+    /**
+     * Returns the rank of the given row in the given column, by solving the
+     * formula of chooseOrder for r.
+     */
+    private int rankOf(int row, int column) {
+        long r = ((row - b) % size + size) % size * inverse % size;
+        r = ((r - (long) column * DRIFT) % size + size) % size;
+        return (r >= 1 && r <= axis.getMaxRank()) ? (int) r : 0;
+    }
+
+    /**
+     * Returns the inverse of a modulo n, using the extended Euclidean
+     * algorithm.
+     */
+    private static long inverse(long a, long n) {
+        long t = 0;
+        long newT = 1;
+        long r = n;
+        long newR = a % n;
+        while (newR != 0) {
+            long q = r / newR;
+            long swap = t - q * newT;
+            t = newT;
+            newT = swap;
+            swap = r - q * newR;
+            r = newR;
+            newR = swap;
+        }
+        return (t < 0) ? t + n : t;
+    }
+
+    private static long gcd(long a, long b) {
+        return (b == 0) ? a : gcd(b, a % b);
+    }
+
+    private void appendName(StringBuilder name, int number) {
+        int n = number;
+        boolean first = true;
+        do {
+            int syllable = n % (CONSONANTS.length() * VOWELS.length());
+            char c = CONSONANTS.charAt(syllable / VOWELS.length());
+            name.append(first ? c : Character.toLowerCase(c));
+            name.append(Character.toLowerCase(VOWELS.charAt(syllable
+                    % VOWELS.length())));
+            n /= CONSONANTS.length() * VOWELS.length();
+            first = false;
+        } while (n > 0);
+    }
+
+    /**
+     * Writes a synthetic data file.
+     * @param args, the file to write, the number of names, and optionally
+     * the number of columns and the largest rank.
+     */
+    public static void main(String[] args) {
+        int size = (args.length < 2) ? 0 : Integer.parseInt(args[1]);
+        if (args.length > 4 || size < 1) {
+            System.err.println("usage: java NameSurferDataGenerator <file> "
+                    + "<names> [columns] [largest rank], with at least one "
+                    + "name");
+            System.exit(1);
+        }
+        NameSurferAxis axis = NameSurferAxis.DEFAULT;
+        if (args.length > 2) {
+            int count = Integer.parseInt(args[2]);
+            int maxRank = (args.length > 3) ? Integer.parseInt(args[3])
+                    : MAX_RANK;
+            int step = (count > NDECADES) ? 1 : 10;
+            axis = new NameSurferAxis(START_DECADE, step, count, maxRank);
+        }
+        new NameSurferDataGenerator(size, axis, size).write(args[0]);
+    }
+}
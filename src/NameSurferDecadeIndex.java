@@ -0,0 +1,200 @@
+/*
+ * File: NameSurferDecadeIndex.java
+ * --------------------------------
+ * This class answers questions about whole decades, such as the most
+ * popular names of the 1950s or the names that rose the most between two
+ * decades.  For every decade it keeps the rows of the names that were on
+ * the chart that decade, sorted by rank, so a query is a binary search and
+ * a copy of the matching rows.  The sorted orders are built the first time
+ * a decade or a pair of decades is asked about, with a counting sort over
+ * the ranks, and kept for later queries.  Queries take no locks, so any
+ * number of threads can ask at once; if two threads ask about the same
+ * decade before its order is built, both build it and one copy is kept.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+public class NameSurferDecadeIndex implements NameSurferConstants {
+
+    private NameSurferIndex index;
+    private int columns;
+    private AtomicReferenceArray<Sorted> byRank;
+    private AtomicReferenceArray<int[]> byChange;
+    private int maxRank;
+
+    /**
+     * Creates a decade index over the names in the given index.
+     */
+    public NameSurferDecadeIndex(NameSurferIndex index) {
+        this.index = index;
+        columns = index.getAxis().getCount();
+        maxRank = index.getAxis().getMaxRank();
+        byRank = new AtomicReferenceArray<Sorted>(columns);
+        byChange = new AtomicReferenceArray<int[]>(columns * columns);
+    }
+
+    /**
+     * Returns the k most popular names in the given decade, most popular
+     * first.
+     * @param decade, int, the column of the axis, which is the number of
+     * decades since START_DECADE for the bundled data.
+     * @param k, int, the largest number of names to return.
+     * @return List<NameSurferEntry>, the names.
+     */
+    public List<NameSurferEntry> topNames(int decade, int k) {
+        int[] rows = sortedRows(decade).rows;
+        return entries(rows, 0, Math.min(k, rows.length));
+    }
+
+    /**
+     * Returns every name whose rank in the given decade is between low and
+     * high, inclusive, most popular first.  Names that were not on the chart
+     * that decade are never returned.
+     * @param decade, int, the column of the axis, which is the number of
+     * decades since START_DECADE for the bundled data.
+     * @param low, int, the best rank to include.
+     * @param high, int, the worst rank to include.
+     * @return List<NameSurferEntry>, the names.
+     */
+    public List<NameSurferEntry> namesInRange(int decade, int low, int high) {
+        Sorted sorted = sortedRows(decade);
+        int[] rows = sorted.rows;
+        int[] decadeRanks = sorted.ranks;
+        return entries(rows, lowerBound(decadeRanks, Math.max(low, 1)),
+                lowerBound(decadeRanks, high + 1));
+    }
+
+    /**
+     * Returns the k names that climbed the most places between two decades,
+     * biggest climb first.  A name that is off the chart counts as ranked at
+     * the largest rank of the axis, the bottom of the graph.
+     */
+    public List<NameSurferEntry> biggestRises(int from, int to, int k) {
+        int[] rows = sortedByChange(from, to);
+        return entries(rows, 0, Math.min(k, rows.length));
+    }
+
+    /**
+     * Returns the k names that fell the most places between two decades,
+     * biggest fall first.
+     */
+    public List<NameSurferEntry> biggestFalls(int from, int to, int k) {
+        int[] rows = sortedByChange(from, to);
+        List<NameSurferEntry> result = new ArrayList<NameSurferEntry>();
+        for (int i = rows.length - 1; i >= 0 && result.size() < k; i--) {
+            result.add(index.entryAt(rows[i]));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the rows of the names on the chart in the given decade, sorted
+     * by rank.
+     */
+    private Sorted sortedRows(int decade) {
+        if (byRank.get(decade) == null) {
+            int size = index.size();
+            int[] count = new int[maxRank + 2];
+            for (int row = 0; row < size; row++) {
+                count[index.rankAt(row, decade) + 1]++;
+            }
+            int onChart = size - count[1];
+            count[1] = 0;
+            for (int rank = 1; rank < count.length; rank++) {
+                count[rank] += count[rank - 1];
+            }
+            int[] rows = new int[onChart];
+            int[] sortedRanks = new int[onChart];
+            for (int row = 0; row < size; row++) {
+                int rank = index.rankAt(row, decade);
+                if (rank > 0) {
+                    int slot = count[rank]++;
+                    rows[slot] = row;
+                    sortedRanks[slot] = rank;
+                }
+            }
+            byRank.compareAndSet(decade, null, new Sorted(rows, sortedRanks));
+        }
+        return byRank.get(decade);
+    }
+
+    /**
+     * Returns the rows of every name sorted by how many places it climbed
+     * between two decades, biggest climb first.
+     */
+    private int[] sortedByChange(int from, int to) {
+        int pair = from * columns + to;
+        if (byChange.get(pair) == null) {
+            int size = index.size();
+            int[] count = new int[2 * maxRank + 2];
+            for (int row = 0; row < size; row++) {
+                count[maxRank - change(row, from, to) + 1]++;
+            }
+            for (int i = 1; i < count.length; i++) {
+                count[i] += count[i - 1];
+            }
+            int[] rows = new int[size];
+            for (int row = 0; row < size; row++) {
+                rows[count[maxRank - change(row, from, to)]++] = row;
+            }
+            byChange.compareAndSet(pair, null, rows);
+        }
+        return byChange.get(pair);
+    }
+
+    /**
+     * Returns how many places the name in the given row climbed between two
+     * decades.
+     */
+    private int change(int row, int from, int to) {
+        return offChart(index.rankAt(row, from))
+                - offChart(index.rankAt(row, to));
+    }
+
+    private int offChart(int rank) {
+        return (rank == 0) ? maxRank : rank;
+    }
+
+    /**
+     * Returns the position of the first value in the sorted array that is
+     * not less than value.
+     */
+    private static int lowerBound(int[] sorted, int value) {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sorted[mid] < value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private List<NameSurferEntry> entries(int[] rows, int from, int to) {
+        List<NameSurferEntry> result = new ArrayList<NameSurferEntry>(
+                Math.max(to - from, 0));
+        for (int i = from; i < to; i++) {
+            result.add(index.entryAt(rows[i]));
+        }
+        return result;
+    }
+
+    /**
+     * The rows of the names on the chart in one decade, sorted by rank, and
+     * their ranks in the same order.
+     */
+    private static class Sorted {
+        private final int[] rows;
+        private final int[] ranks;
+
+        Sorted(int[] rows, int[] ranks) {
+            this.rows = rows;
+            this.ranks = ranks;
+        }
+    }
+}
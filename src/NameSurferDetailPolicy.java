@@ -0,0 +1,100 @@
+/*
+ * File: NameSurferDetailPolicy.java
+ * ---------------------------------
+ * This class decides how much detail NameSurferGraph draws for each
+ * entry.  The canvas has room for a limited number of readable labels,
+ * which depends on its size, so as more entries are shown the graph moves
+ * from labeling every decade, to labeling only the decade each name was
+ * most popular, to drawing the lines alone.  Graphs are drawn through the
+ * points of the layout, which are every column of the axis unless there
+ * are too many columns for the width of the canvas.
+ */
+
+public class NameSurferDetailPolicy implements NameSurferConstants {
+
+    /** Every decade is labeled, with a run of off-chart decades sharing one */
+    public static final int ALL_LABELS = 0;
+
+    /** Only the decade in which the name ranked best is labeled */
+    public static final int PEAK_LABEL = 1;
+
+    /** No decade is labeled */
+    public static final int NO_LABELS = 2;
+
+    /* The area in pixels that one label needs to stay readable */
+    private static final int LABEL_AREA = 80 * 16;
+
+    /**
+     * Returns the level of detail to draw the given number of entries at
+     * with the given layout.
+     */
+    public static int chooseDetail(NameSurferLayout layout, int entries) {
+        long budget = (long) Math.max(layout.getWidth(), 0)
+                * Math.max(layout.getHeight(), 0) / LABEL_AREA;
+        if ((long) entries * layout.getPointCount() <= budget) {
+            return ALL_LABELS;
+        }
+        if (entries <= budget) {
+            return PEAK_LABEL;
+        }
+        return NO_LABELS;
+    }
+
+    /**
+     * Returns the columns of an entry that are labeled at the given level of
+     * detail.  Only columns that are points of the layout are labeled.
+     */
+    public static int[] labeledDecades(NameSurferEntry entry, int detail,
+            NameSurferLayout layout) {
+        if (detail == NO_LABELS) {
+            return new int[0];
+        }
+        int points = layout.getPointCount();
+        if (detail == PEAK_LABEL) {
+            int peak = 0;
+            for (int p = 1; p < points; p++) {
+                int j = layout.column(p);
+                if (layout.offChart(entry.getRank(j))
+                        < layout.offChart(entry.getRank(peak))) {
+                    peak = j;
+                }
+            }
+            return new int[] { peak };
+        }
+        int[] decades = new int[points];
+        int count = 0;
+        for (int p = 0; p < points; p++) {
+            if (p == 0 || entry.getRank(layout.column(p)) != 0
+                    || entry.getRank(layout.column(p - 1)) != 0) {
+                decades[count++] = layout.column(p);
+            }
+        }
+        int[] labeled = new int[count];
+        System.arraycopy(decades, 0, labeled, 0, count);
+        return labeled;
+    }
+
+    /**
+     * Returns the points of the layout at which the line segments of an
+     * entry start.  A run of points at which the name was off the chart is
+     * drawn as one segment along the bottom of the graph, so the segment
+     * starting at point starts[i] ends at point starts[i + 1], and the last
+     * one at the last point.
+     */
+    public static int[] segmentStarts(NameSurferEntry entry,
+            NameSurferLayout layout) {
+        int points = layout.getPointCount();
+        int[] starts = new int[points - 1];
+        int count = 0;
+        for (int p = 0; p < points - 1; p++) {
+            if (p == 0 || entry.getRank(layout.column(p)) != 0
+                    || entry.getRank(layout.column(p - 1)) != 0
+                    || entry.getRank(layout.column(p + 1)) != 0) {
+                starts[count++] = p;
+            }
+        }
+        int[] segments = new int[count];
+        System.arraycopy(starts, 0, segments, 0, count);
+        return segments;
+    }
+}
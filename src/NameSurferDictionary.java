@@ -0,0 +1,107 @@
+/*
+ * File: NameSurferDictionary.java
+ * -------------------------------
+ * This class numbers the names of several data files, so that a name found
+ * in many of them is stored once.  Each distinct name, compared without
+ * regard to case, is given the next id the first time it is added, and
+ * keeps the spelling it was first added with.  The dictionary only grows;
+ * it is shared by every partition of a NameSurferPartitionedDataBase and
+ * may be used from several threads at once.
+ *
+ * Lookups take no lock.  The names and their ids are kept in a Contents
+ * object that never changes once it is published; adding names copies the
+ * contents, adds the names to the copy and publishes it, one copy for all
+ * the names of a partition.  Adding is done one batch at a time, and a
+ * lookup sees either all of a batch or none of it.
+ */
+
+import java.util.Arrays;
+
+public class NameSurferDictionary {
+
+    private volatile Contents contents = new Contents(new String[0], 0,
+            new NameSurferNameTable(0));
+
+    /**
+     * Returns the id of the given name, giving it a new one if it is not in
+     * the dictionary yet.  Adding names one at a time copies the dictionary
+     * each time; add many at once with add(String[]).
+     */
+    public int add(String name) {
+        return add(new String[] { name })[0];
+    }
+
+    /**
+     * Returns the ids of the given names, giving a new one to each name that
+     * is not in the dictionary yet.
+     * @param names, String[], the names to add.
+     * @return int[], the id of each name, in the same order.
+     */
+    public synchronized int[] add(String[] names) {
+        Contents old = contents;
+        int[] result = new int[names.length];
+        String[] byId = old.names;
+        int size = old.size;
+        NameSurferNameTable ids = null;
+        for (int i = 0; i < names.length; i++) {
+            int id = (ids == null) ? old.ids.get(names[i])
+                    : ids.get(names[i]);
+            if (id < 0) {
+                if (ids == null) {
+                    ids = old.ids.copy();
+                    byId = Arrays.copyOf(old.names, size + names.length);
+                }
+                id = size++;
+                byId[id] = names[i];
+                ids.put(names[i], id);
+            }
+            result[i] = id;
+        }
+        if (ids != null) {
+            contents = new Contents(byId, size, ids);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the id of the given name, or -1 if the name is not in the
+     * dictionary.
+     */
+    public int find(CharSequence name) {
+        return contents.ids.get(name);
+    }
+
+    /**
+     * Returns the name with the given id.
+     */
+    public String nameAt(int id) {
+        Contents current = contents;
+        if (id < 0 || id >= current.size) {
+            throw new IndexOutOfBoundsException("No name with id " + id);
+        }
+        return current.names[id];
+    }
+
+    /**
+     * Returns the number of names in the dictionary.
+     */
+    public int size() {
+        return contents.size;
+    }
+
+    /**
+     * The names in the order of their ids, and the table from names to
+     * ids.  The names array may be longer than size.
+     */
+    private static class Contents {
+        private final String[] names;
+        private final int size;
+        private final NameSurferNameTable ids;
+
+        Contents(String[] names, int size, NameSurferNameTable ids) {
+            this.names = names;
+            this.size = size;
+            this.ids = ids;
+        }
+    }
+}
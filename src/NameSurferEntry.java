@@ -3,15 +3,25 @@
  * --------------------------
  * This class represents a single entry in the database.  Each
  * NameSurferEntry contains a name and a list giving the popularity
- * of that name for each decade stretching back to 1900.
+ * of that name for each decade stretching back to 1900.  Datasets
+ * with a different time axis, such as yearly ranks, describe it with
+ * a NameSurferAxis; the "decade" of an entry is then a column of that
+ * axis.  Statistics of the ranks, such as the best rank, are kept by the
+ * index the entry comes from in a NameSurferStatistics; an entry that is
+ * not in an index computes its own the first time one is asked for.
  */
 
-import java.util.*;
+import java.nio.ShortBuffer;
 
 public class NameSurferEntry implements NameSurferConstants {
 
-    private String name;
-    private int[] rank = new int[NDECADES];
+    private final String name;
+    private final ShortBuffer rank;
+    private final int offset;
+    private final NameSurferAxis axis;
+    private final int row;
+    private final NameSurferStatistics statistics;
+    private volatile NameSurferStatistics ownStatistics;
 
     /**
      * Creates a new NameSurferEntry from a data line as it appears in the data
@@ -19,20 +29,80 @@ public class NameSurferEntry implements NameSurferConstants {
      * giving the rank of that name for each decade.
      */
     public NameSurferEntry(String line) {
-        this.name = line.substring(0, line.indexOf(" "));
-        int startLocation = line.indexOf(" ") + 1;
-        int endLocation = line.indexOf(" ", startLocation);
-        for (int i = 0; i < rank.length - 1; i++) {
-            int score = Integer.parseInt(line.substring(startLocation,
-                    endLocation));
-            rank[i] = score;
-            startLocation = endLocation + 1;
-            endLocation = line.indexOf(" ", startLocation);
+        this(line, NameSurferAxis.DEFAULT);
+    }
+
+    /**
+     * Creates a new NameSurferEntry from a data line of a file with the given
+     * time axis.
+     */
+    public NameSurferEntry(String line, NameSurferAxis axis) {
+        long start = NameSurferMetrics.start();
+        int nameEnd = line.indexOf(' ');
+        if (nameEnd < 0) {
+            throw new IllegalArgumentException("No ranks in line: " + line);
+        }
+        this.name = line.substring(0, nameEnd);
+        short[] ranks = new short[axis.getCount()];
+        this.rank = ShortBuffer.wrap(ranks);
+        this.offset = 0;
+        this.axis = axis;
+        this.row = 0;
+        int decade = 0;
+        int pos = nameEnd;
+        while (pos < line.length()) {
+            char c = line.charAt(pos++);
+            if (c == ' ') {
+                continue;
+            }
+            if (c < '0' || c > '9' || decade == ranks.length) {
+                throw new IllegalArgumentException("Malformed line: " + line);
+            }
+            int score = c - '0';
+            while (pos < line.length() && line.charAt(pos) != ' ') {
+                c = line.charAt(pos++);
+                if (c < '0' || c > '9') {
+                    throw new IllegalArgumentException("Malformed line: "
+                            + line);
+                }
+                score = score * 10 + (c - '0');
+                if (score > NameSurferAxis.RANK_LIMIT) {
+                    throw new IllegalArgumentException("Rank too large: "
+                            + line);
+                }
+            }
+            ranks[decade++] = (short) score;
         }
-        rank[rank.length-1] = Integer.parseInt(line.substring(startLocation));
-        if (rank.length != NDECADES) {
-            throw new IllegalArgumentException();
+        if (decade != ranks.length) {
+            throw new IllegalArgumentException("Expected " + ranks.length
+                    + " ranks in line: " + line);
         }
+        this.statistics = null;
+        NameSurferMetrics.recordSince(NameSurferMetrics.PARSE, start);
+    }
+
+    /**
+     * Creates a NameSurferEntry that is a view over ranks which are already
+     * stored elsewhere, such as the packed rows of a NameSurferRankTable or a
+     * mapped NameSurferSnapshot.  The ranks of this entry are the
+     * axis.getCount() values starting at offset, stored as unsigned shorts,
+     * in the given row of an index, whose statistics are kept in the given
+     * object.
+     * @param statistics, NameSurferStatistics, the statistics of the index,
+     * which must not be null.
+     * @param row, int, the row of the entry in the index.
+     */
+    public NameSurferEntry(String name, ShortBuffer rank, int offset,
+            NameSurferAxis axis, NameSurferStatistics statistics, int row) {
+        if (statistics == null) {
+            throw new IllegalArgumentException("No statistics for " + name);
+        }
+        this.name = name;
+        this.rank = rank;
+        this.offset = offset;
+        this.axis = axis;
+        this.statistics = statistics;
+        this.row = row;
     }
 
     /**
@@ -49,7 +119,72 @@ public class NameSurferEntry implements NameSurferConstants {
      * START_DECADE. If a name does not appear in a decade, the rank value is 0.
      */
     public int getRank(int decade) {
-        return rank[decade];
+        return rank.get(offset + decade) & 0xFFFF;
+    }
+
+    /**
+     * Returns the time axis of this entry, which gives the number of decades
+     * (or other columns) it has ranks for.
+     */
+    public NameSurferAxis getAxis() {
+        return axis;
+    }
+
+    /**
+     * Returns the best rank this name reached, or 0 if it was never on the
+     * chart.
+     */
+    public int getPeakRank() {
+        return statistics().getPeakRank(row);
+    }
+
+    /**
+     * Returns the first decade in which this name reached its best rank, or
+     * -1 if it was never on the chart.
+     */
+    public int getPeakDecade() {
+        return statistics().getPeakDecade(row);
+    }
+
+    /**
+     * Returns the number of decades in which this name was on the chart.
+     */
+    public int getDecadesOnChart() {
+        return statistics().getDecadesOnChart(row);
+    }
+
+    /**
+     * Returns the trend of the popularity of this name, in places per
+     * decade; positive if it grew more popular.
+     */
+    public float getSlope() {
+        return statistics().getSlope(row);
+    }
+
+    /**
+     * Returns how much the popularity of this name changed from one decade
+     * to the next, in places.
+     */
+    public float getVolatility() {
+        return statistics().getVolatility(row);
+    }
+
+    /**
+     * Returns the statistics that hold this entry's row: those of its index,
+     * or, for an entry read from a line, ones of its own that are computed
+     * when first needed.  Two threads may both compute them, which does no
+     * harm since they compute the same thing.
+     */
+    private NameSurferStatistics statistics() {
+        if (statistics != null) {
+            return statistics;
+        }
+        NameSurferStatistics own = ownStatistics;
+        if (own == null) {
+            own = NameSurferStatistics.of(this);
+            ownStatistics = own;
+        }
+        return own;
     }
 
     /**
@@ -57,6 +192,13 @@ public class NameSurferEntry implements NameSurferConstants {
      * NameSurferEntry.
      */
     public String toString() {
-        return name + " " + Arrays.toString(rank);
+        StringBuilder sb = new StringBuilder(name).append(" [");
+        for (int i = 0; i < axis.getCount(); i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(getRank(i));
+        }
+        return sb.append("]").toString();
     }
 }
@@ -0,0 +1,329 @@
+/*
+ * File: NameSurferExport.java
+ * ---------------------------
+ * This program writes a popularity chart for every name in a data file,
+ * without opening a window.  Charts are drawn with the same layout as the
+ * NameSurferGraph canvas and written as PNG or SVG files, one per name,
+ * by a pool of threads.  At most a few charts per thread are in memory at
+ * any time, and each thread copies the ranks of the name it is drawing
+ * into a buffer of its own instead of asking the index for an entry, which
+ * a rank table would keep, so the batch size is limited only by the disk.
+ * When the run is over, the number of charts written per second is
+ * printed.
+ *
+ *     java NameSurferExport names-data.txt charts png 800 600
+ */
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ShortBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import acm.util.ErrorException;
+
+public class NameSurferExport implements NameSurferConstants {
+
+    /* The number of charts waiting to be drawn, per thread */
+    private static final int QUEUE_PER_THREAD = 4;
+
+    /*
+     * The PNG compression quality.  Charts are mostly blank, so light
+     * compression keeps them small and is about twice as fast as the default.
+     */
+    private static final float PNG_QUALITY = 0.9f;
+
+    /* The longest file name written, without the row number and extension */
+    private static final int MAX_FILE_NAME = 100;
+
+    /* Names that Windows reserves for devices, whatever the extension */
+    private static final String[] RESERVED_NAMES = { "CON", "PRN", "AUX",
+        "NUL", "COM1", "COM2", "COM3", "COM4", "COM5", "COM6", "COM7", "COM8",
+        "COM9", "LPT1", "LPT2", "LPT3", "LPT4", "LPT5", "LPT6", "LPT7",
+        "LPT8", "LPT9" };
+
+    private NameSurferIndex index;
+    private File directory;
+    private String format;
+    private int width;
+    private int height;
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Creates an export of every name in the given index.
+     * @param index, NameSurferIndex, the names to draw.
+     * @param directory, File, where to write the charts.
+     * @param format, String, "png" or "svg".
+     * @param width, int, the width of each chart.
+     * @param height, int, the height of each chart.
+     */
+    public NameSurferExport(NameSurferIndex index, File directory,
+            String format, int width, int height) {
+        if (!format.equals("png") && !format.equals("svg")) {
+            throw new ErrorException("Unknown chart format: " + format);
+        }
+        this.index = index;
+        this.directory = directory;
+        this.format = format;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Sets the number of threads that draw and write charts.
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Writes a chart for every name and returns how many were written.  The
+     * first error stops the export and is thrown once the threads are done.
+     */
+    public int run() {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new ErrorException("Can't create " + directory);
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        final Semaphore queue = new Semaphore(threads * QUEUE_PER_THREAD);
+        final AtomicInteger written = new AtomicInteger();
+        final AtomicReference<RuntimeException> failure =
+                new AtomicReference<RuntimeException>();
+        final ThreadLocal<Worker> workers = new ThreadLocal<Worker>() {
+            protected Worker initialValue() {
+                return new Worker();
+            }
+        };
+        try {
+            for (int row = 0; row < index.size() && failure.get() == null;
+                    row++) {
+                queue.acquireUninterruptibly();
+                final int chart = row;
+                pool.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            workers.get().write(chart);
+                            written.incrementAndGet();
+                        } catch (RuntimeException e) {
+                            failure.compareAndSet(null, e);
+                        } finally {
+                            queue.release();
+                        }
+                    }
+                });
+            }
+        } finally {
+            pool.shutdown();
+            try {
+                pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        return written.get();
+    }
+
+    /**
+     * The renderer and PNG writer used by one thread, and the buffer the
+     * ranks of the name being drawn are copied into.
+     */
+    private class Worker {
+        private NameSurferRasterRenderer renderer =
+                new NameSurferRasterRenderer();
+        private ImageWriter writer;
+        private ImageWriteParam param;
+        private short[] ranks = new short[index.getAxis().getCount()];
+        private ShortBuffer rankView = ShortBuffer.wrap(ranks);
+
+        Worker() {
+            renderer.setAxis(index.getAxis());
+            if (format.equals("png")) {
+                writer = ImageIO.getImageWritersByFormatName("png").next();
+                param = writer.getDefaultWriteParam();
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(PNG_QUALITY);
+            }
+        }
+
+        /**
+         * Draws the chart of the name in the given row and writes it to its
+         * file.
+         */
+        void write(int row) {
+            for (int decade = 0; decade < ranks.length; decade++) {
+                ranks[decade] = (short) index.rankAt(row, decade);
+            }
+            NameSurferEntry entry = new NameSurferEntry(index.nameAt(row),
+                    rankView, 0, index.getAxis(), index.getStatistics(), row);
+            File file = new File(directory, fileName(entry.getName(), row)
+                    + "." + format);
+            try {
+                if (writer != null) {
+                    BufferedImage image = renderer.render(
+                            Collections.singletonList(entry), width, height);
+                    file.delete();
+                    ImageOutputStream out = ImageIO.createImageOutputStream(file);
+                    try {
+                        writer.setOutput(out);
+                        writer.write(null, new IIOImage(image, null, null),
+                                param);
+                    } finally {
+                        out.close();
+                    }
+                } else {
+                    Writer out = new BufferedWriter(new OutputStreamWriter(
+                            new FileOutputStream(file), "UTF-8"));
+                    try {
+                        writeSvg(out, Collections.singletonList(entry),
+                                new NameSurferLayout(index.getAxis(), width,
+                                        height));
+                    } finally {
+                        out.close();
+                    }
+                }
+            } catch (IOException e) {
+                throw new ErrorException("Can't write " + file + ": "
+                        + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Writes the given entries as an SVG document, using the same layout as
+     * the canvas.
+     */
+    public static void writeSvg(Writer out, List<NameSurferEntry> entries,
+            NameSurferLayout layout) throws IOException {
+        int width = layout.getWidth();
+        int height = layout.getHeight();
+        out.write("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"" + width
+                + "\" height=\"" + height + "\" font-family=\"sans-serif\" "
+                + "font-size=\"12\">\n");
+        out.write("<rect width=\"100%\" height=\"100%\" fill=\"white\"/>\n");
+        out.write("<g stroke=\"black\">\n");
+        for (int i = 1; i < layout.getGridCount(); i++) {
+            double x = layout.x(i * layout.getGridStep());
+            line(out, x, 0, x, height);
+        }
+        line(out, 0, GRAPH_MARGIN_SIZE, width, GRAPH_MARGIN_SIZE);
+        line(out, 0, height - GRAPH_MARGIN_SIZE, width, height
+                - GRAPH_MARGIN_SIZE);
+        out.write("</g>\n");
+        for (int i = 0; i < layout.getGridCount(); i++) {
+            int column = i * layout.getGridStep();
+            text(out, layout.x(column), height - 3, layout.yearLabel(column));
+        }
+        for (int i = 0; i < entries.size(); i++) {
+            NameSurferEntry entry = entries.get(i);
+            Color color = NameSurferLayout.chooseColor(i);
+            out.write(String.format("<polyline fill=\"none\" "
+                    + "stroke=\"#%06x\" points=\"", color.getRGB() & 0xFFFFFF));
+            for (int p = 0; p < layout.getPointCount(); p++) {
+                int j = layout.column(p);
+                out.write(layout.x(j) + "," + layout.y(entry.getRank(j)) + " ");
+            }
+            out.write("\"/>\n");
+            for (int p = 0; p < layout.getPointCount(); p++) {
+                int j = layout.column(p);
+                text(out, layout.x(j), layout.y(entry.getRank(j)),
+                        NameSurferLayout.label(entry, j));
+            }
+        }
+        out.write("</svg>\n");
+    }
+
+    private static void line(Writer out, double x1, double y1, double x2,
+            double y2) throws IOException {
+        out.write("<line x1=\"" + x1 + "\" y1=\"" + y1 + "\" x2=\"" + x2
+                + "\" y2=\"" + y2 + "\"/>\n");
+    }
+
+    private static void text(Writer out, double x, double y, String text)
+            throws IOException {
+        out.write("<text x=\"" + x + "\" y=\"" + y + "\" xml:space=\"preserve\">"
+                + text.replace("&", "&amp;").replace("<", "&lt;") + "</text>\n");
+    }
+
+    /**
+     * Returns the file name, without the extension, for the name in the
+     * given row.  A name made only of letters, digits and dashes is used as
+     * it is.  Any other character is replaced by an underscore, and then
+     * the row number is added after an underscore, as it is for a name
+     * that is too long or that Windows reserves for a device, such as CON.
+     * A name kept as it is has no underscore and every changed name has a
+     * different row, so two names never share a file, unless a file system
+     * that ignores case is given names that differ only in case.
+     */
+    private static String fileName(String name, int row) {
+        StringBuilder sb = new StringBuilder(name.length());
+        boolean changed = name.isEmpty() || name.length() > MAX_FILE_NAME;
+        for (int i = 0; i < Math.min(name.length(), MAX_FILE_NAME); i++) {
+            char c = name.charAt(i);
+            if (Character.isLetterOrDigit(c) || c == '-') {
+                sb.append(c);
+            } else {
+                sb.append('_');
+                changed = true;
+            }
+        }
+        for (String reserved : RESERVED_NAMES) {
+            if (reserved.equalsIgnoreCase(sb.toString())) {
+                changed = true;
+            }
+        }
+        if (changed) {
+            sb.append('_').append(row);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Exports the charts of every name in a data file.
+     * @param args, the data file, the output directory, and optionally the
+     * format (png or svg), the width, the height and the number of threads.
+     */
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.err.println("usage: java NameSurferExport <data file> "
+                    + "<directory> [png|svg] [width] [height] [threads]");
+            System.exit(1);
+        }
+        System.setProperty("java.awt.headless", "true");
+        String format = (args.length > 2) ? args[2] : "png";
+        int width = (args.length > 3) ? Integer.parseInt(args[3])
+                : APPLICATION_WIDTH;
+        int height = (args.length > 4) ? Integer.parseInt(args[4])
+                : APPLICATION_HEIGHT;
+        NameSurferDataBase records = new NameSurferDataBase(args[0]);
+        NameSurferExport export = new NameSurferExport(records.getIndex(),
+                new File(args[1]), format, width, height);
+        if (args.length > 5) {
+            export.setThreads(Integer.parseInt(args[5]));
+        }
+        ImageIO.setUseCache(false);
+        long start = System.nanoTime();
+        int charts = export.run();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Wrote %d charts in %.2f s (%.1f charts/s)%n",
+                charts, seconds, charts / seconds);
+    }
+}
@@ -4,207 +4,392 @@
  * This class represents the canvas on which the graph of
  * names is drawn. This class is responsible for updating
  * (redrawing) the graphs whenever the list of entries changes or the window is 
- * resized.
+ * resized.  The graphical objects of the grid and of every entry are created
+ * once and kept on the canvas; redrawing only moves them to fit the current
+ * size of the window.  Redraws are not done as soon as something changes:
+ * they are handed to a NameSurferRedrawScheduler, which merges a burst of
+ * changes into one redraw per frame.
+ *
+ * How many labels each entry gets is decided by NameSurferDetailPolicy from
+ * the size of the canvas and the number of entries, and runs of decades in
+ * which a name was off the chart are drawn as one line, so the number of
+ * objects on the canvas is bounded by its size rather than by the number
+ * of entries.  Labels that fall outside the canvas are hidden.  The time
+ * axis comes from the data file; when it has more columns than fit across
+ * the canvas, the graphs and the grid are thinned out by NameSurferLayout.
+ *
+ * Once more than RASTER_THRESHOLD entries are shown, or if raster mode is
+ * turned on, the graphs are instead drawn into a single image by a
+ * NameSurferRasterRenderer, which is the only object left on the canvas.
  */
 
 import acm.graphics.*;
+import java.awt.Color;
 import java.awt.event.*;
 import java.util.*;
 import java.util.List;
-import java.awt.*;
 
 @SuppressWarnings("serial")
 public class NameSurferGraph extends GCanvas implements NameSurferConstants,
         ComponentListener {
 
+    /** The number of entries above which the graphs are drawn as an image */
+    public static final int RASTER_THRESHOLD = 50;
+
     private List<NameSurferEntry> entries = new ArrayList<NameSurferEntry>();
+    private List<Series> series = new ArrayList<Series>();
+    private NameSurferLayout layout = new NameSurferLayout(0, 0);
+    private GLine[] decadeLines = new GLine[0];
+    private GLabel[] yearLabels = new GLabel[0];
+    private int gridStep;
+    private NameSurferAxis gridAxis;
+    private GLine upperLine;
+    private GLine lowerLine;
+    private int detail = NameSurferDetailPolicy.ALL_LABELS;
+    private boolean rasterMode;
+    private boolean drawingRaster;
+    private NameSurferRasterRenderer renderer;
+    private GImage rasterImage;
+    private NameSurferRedrawScheduler scheduler = new NameSurferRedrawScheduler(
+            new Runnable() {
+                public void run() {
+                    update();
+                    repaint();
+                }
+            }, NameSurferRedrawScheduler.DEFAULT_FRAME_MILLIS);
 
     /**
      * Creates a new NameSurferGraph object that displays the data.
      */
     public NameSurferGraph() {
+        setAutoRepaintFlag(false);
         addComponentListener(this);
+        makeGrid();
     }
 
     /**
-     * Clears the list of name surfer entries stored in the entries array.
+     * Sets the shortest time between two redraws, in milliseconds.
      */
-    public void clear() {
-        entries.clear();
-        update();
+    public void setFrameBudget(int millis) {
+        scheduler.setFrameMillis(millis);
     }
 
     /**
-     * Adds a new NameSurferEntry to the list of entries on the display. Note
-     * that this method does not actually draw the graph, but simply stores the
-     * entry; the graph is drawn by calling update.
+     * Returns the scheduler that runs the redraws, which keeps count of the
+     * redraws it ran and dropped and of how long they took.
      */
-    public void addEntry(NameSurferEntry entry) {
-        entries.add(entry);
-        update();
+    public NameSurferRedrawScheduler getScheduler() {
+        return scheduler;
     }
 
     /**
-     * Updates the display image by deleting all the graphical objects from the
-     * canvas and then reassembling the display according to the list of
-     * entries. 
+     * Sets the time axis that the graphs are drawn over.  The entries shown
+     * must have this axis.
      */
-    public void update() {
-        this.removeAll();
-        makeGrid();
-        if (!entries.isEmpty()) {
-            drawGraphs();
+    public void setAxis(NameSurferAxis axis) {
+        layout.setAxis(axis);
+        if (renderer != null) {
+            renderer.setAxis(axis);
+        }
+        for (Series s : series) {
+            s.removeFrom(this);
         }
+        series.clear();
+        if (!drawingRaster) {
+            layout.setSize(getWidth(), getHeight());
+            for (NameSurferEntry entry : entries) {
+                addSeries(entry);
+            }
+        }
+        scheduler.requestRedraw();
+    }
+
+    /**
+     * Turns raster mode on or off.  In raster mode the graphs are always
+     * drawn into an image; otherwise they only are once there are more than
+     * RASTER_THRESHOLD of them.
+     */
+    public void setRasterMode(boolean rasterMode) {
+        this.rasterMode = rasterMode;
+        chooseMode();
+        scheduler.requestRedraw();
     }
 
     /**
-     * Finds out if the rank is zero.  If it is assigns the maximum value 1,000
-     * so that the graph displays it at the bottom of the screen.
-     * @param rank, int.
-     * @return rank, int.
+     * Clears the list of name surfer entries stored in the entries array and
+     * removes their graphs from the display.
      */
-    private int isZero(int rank) {
-        if (rank == 0) {
-            return MAX_RANK;
+    public void clear() {
+        for (Series s : series) {
+            s.removeFrom(this);
         }
-        return rank;
+        series.clear();
+        entries.clear();
+        chooseMode();
+        scheduler.requestRedraw();
     }
 
     /**
-     * Finds out if the rank is zero.  If it is returns an * for a nicer visual
-     * representation. 
-     * @param score, String, the ranking of the name.
-     * @return String, * if score is zero, otherwise the score.  
+     * Returns the entries on the display, in the order they were added.
      */
-    private String isZero(String score) {
-        if (score.equals("0")) {
-            return "*";
+    public List<NameSurferEntry> getEntries() {
+        return new ArrayList<NameSurferEntry>(entries);
+    }
+
+    /**
+     * Adds a new NameSurferEntry to the list of entries on the display.  Only
+     * the graphical objects of the new entry are created; the graphs already
+     * on the display are left as they are.
+     */
+    public void addEntry(NameSurferEntry entry) {
+        entries.add(entry);
+        chooseMode();
+        if (!drawingRaster) {
+            layout.setSize(getWidth(), getHeight());
+            addSeries(entry);
         }
-        return score;
+        scheduler.requestRedraw();
     }
 
     /**
-     * Draws the graphs for any NameSurferEntry objects in the entries array.
+     * Updates the display image by moving the grid and the graph of every
+     * entry to fit the current size of the canvas.  No graphical objects are
+     * created or removed.  This method is called by the redraw scheduler, and
+     * the caller is responsible for repainting the canvas.
      */
-    private void drawGraphs() {
-        int lineInterval = this.getWidth() / NDECADES;
-        for (int i = 0; i < entries.size(); i++) {
-            NameSurferEntry entry = entries.get(i);
-            drawGraph(entry, lineInterval, i);
+    public void update() {
+        long start = NameSurferMetrics.start();
+        long allocated = NameSurferMetrics.allocatedBytes();
+        layout.setSize(getWidth(), getHeight());
+        if (drawingRaster) {
+            rasterImage.setImage(renderer.render(entries, getWidth(),
+                    getHeight()));
+        } else {
+            layoutGrid();
+            detail = NameSurferDetailPolicy.chooseDetail(layout,
+                    series.size());
+            for (Series s : series) {
+                s.prepare(layout, detail, this);
+                s.layout(layout);
+            }
         }
+        NameSurferMetrics.recordSince(NameSurferMetrics.UPDATE, start);
+        NameSurferMetrics.recordAllocatedSince(NameSurferMetrics.UPDATE_BYTES,
+                allocated);
     }
-    
+
     /**
-     * Draws the graph of the given entry.
-     * @param entry, the entry of the graph.
-     * @param lineInterval, int, the visual distance between each decade.
-     * @param i, int.
+     * Switches between drawing the graphs as graphical objects and drawing
+     * them as an image, if the number of entries or the raster mode call for
+     * it.
      */
-    private void drawGraph(NameSurferEntry entry, int lineInterval, int i) {
-        for (int j = 0; j < NDECADES; j++) {
-            int firstY = entry.getRank(j);
-            int secondY = 0;
-            String score = Integer.toString(entry.getRank(j));
-            firstY = isZero(firstY);
-            score = isZero(score);
-            double heightRatio = (double) (getHeight() - 2 * GRAPH_MARGIN_SIZE) / MAX_RANK;
-            this.add(markScore(entry, score, firstY, lineInterval,heightRatio, j));
-            if (j < NDECADES -1) {
-                secondY = entry.getRank(j + 1); 
-                secondY = isZero(secondY);
-                this.add(drawLine(lineInterval, firstY, secondY, heightRatio, i, j));
+    private void chooseMode() {
+        boolean raster = rasterMode || entries.size() > RASTER_THRESHOLD;
+        if (raster == drawingRaster) {
+            return;
+        }
+        drawingRaster = raster;
+        setGridVisible(!raster);
+        if (raster) {
+            for (Series s : series) {
+                s.removeFrom(this);
+            }
+            series.clear();
+            if (renderer == null) {
+                renderer = new NameSurferRasterRenderer();
+                renderer.setAxis(layout.getAxis());
+                rasterImage = new GImage(renderer.render(entries, getWidth(),
+                        getHeight()));
+            }
+            this.add(rasterImage, 0, 0);
+        } else {
+            this.remove(rasterImage);
+            layout.setSize(getWidth(), getHeight());
+            for (NameSurferEntry entry : entries) {
+                addSeries(entry);
             }
         }
     }
-    
+
     /**
-     * Draws a line from one decade to the next one based on the rank.
-     * @param lineInterval, int, the visual distance between each decade.
-     * @param firstPoint, int, the y coordinate of the line's starting point.
-     * @param secondPoint, int, the y coordinate of the line's ending point.
-     * @param heightRatio, double, the ratio between the max rank number and 
-     * the current size of the window.
-     * @param i
-     * @param j
-     * @return GLine, a line.
+     * Creates the graphical objects of an entry and puts them on the canvas.
      */
-    private GLine drawLine(int lineInterval, int firstPoint, int secondPoint,
-            double heightRatio, int i, int j) {
-        GLine line = new GLine(lineInterval * j, (firstPoint * heightRatio)
-                + GRAPH_MARGIN_SIZE, lineInterval * (j + 1),
-                (secondPoint * heightRatio) + GRAPH_MARGIN_SIZE);
-        line.setColor(chooseColor(i));
-        return line;
+    private void addSeries(NameSurferEntry entry) {
+        Series s = new Series(entry, series.size());
+        series.add(s);
+        s.prepare(layout, detail, this);
+        s.layout(layout);
     }
 
     /**
-     * Adds the ranking information to the display for each decade. 
-     * @param entry, the entry of the ranking.
-     * @param score, the ranking.
-     * @param firstPoint, int, the y coordinate of the line's starting point.
-     * @param lineInterval, int, the visual distance between each decade.
-     * @param heightRatio, double, the ratio between the max rank number and 
-     * the current size of the window.
-     * @param j
-     * @return GLabel, visual representation of each decade's ranking.
+     * Creates the basic grid, without any graphs.  The grid is positioned by
+     * layoutGrid.
      */
-    private GLabel markScore(NameSurferEntry entry, String score,
-            int firstPoint, int lineInterval, double heightRatio, int j) {
-        GLabel rank = new GLabel(" " + entry.getName() + " " + score);
-        this.add(rank, lineInterval * j, (firstPoint * heightRatio)
-                + GRAPH_MARGIN_SIZE);
-        return rank;
+    private void makeGrid() {
+        upperLine = new GLine(0, 0, 0, 0);
+        lowerLine = new GLine(0, 0, 0, 0);
+        this.add(upperLine);
+        this.add(lowerLine);
+        makeDecadeLines();
     }
 
     /**
-     * Assigns the color of the graph using a cycle of four colors.
-     * @param i
-     * @return Color, red, blue, magenta, or black.
+     * Replaces the lines and year labels of the grid with ones for the
+     * current axis and grid step of the layout.
      */
-    private Color chooseColor(int i) {
-        if (i > 3) {
-            i = i % 4;
+    private void makeDecadeLines() {
+        for (GLine line : decadeLines) {
+            this.remove(line);
         }
-        if (i == 0) {
-            return Color.RED;
+        for (GLabel label : yearLabels) {
+            this.remove(label);
         }
-        if (i == 1) {
-            return Color.BLUE;
-        }
-        if (i == 2) {
-            return Color.MAGENTA;
-        }
-        if (i == 3) {
-            return Color.BLACK;
+        gridStep = layout.getGridStep();
+        gridAxis = layout.getAxis();
+        int count = layout.getGridCount();
+        decadeLines = new GLine[count - 1];
+        yearLabels = new GLabel[count];
+        for (int i = 0; i < count; i++) {
+            if (i < count - 1) {
+                decadeLines[i] = new GLine(0, 0, 0, 0);
+                this.add(decadeLines[i]);
+            }
+            yearLabels[i] = new GLabel(layout.yearLabel(i * gridStep));
+            this.add(yearLabels[i]);
         }
-        return null;
     }
 
     /**
-     * Creates the basic grid, without any graphs. 
+     * Moves the lines and labels of the grid to fit the canvas.
      */
-    private void makeGrid() {
-        int lowerBound = this.getHeight();
-        int startYear = 1900;
-        int lineInterval = this.getWidth() / NDECADES;
-        for (int i = 1; i < NDECADES + 1; i++) {
-            if (i < NDECADES) {
-                GLine decade = new GLine(lineInterval * i, 0, lineInterval * i,
+    private void layoutGrid() {
+        if (gridStep != layout.getGridStep() || gridAxis != layout.getAxis()) {
+            makeDecadeLines();
+        }
+        int lowerBound = layout.getHeight();
+        for (int i = 1; i < yearLabels.length + 1; i++) {
+            if (i < yearLabels.length) {
+                decadeLines[i - 1].setStartPoint(layout.x(i * gridStep), 0);
+                decadeLines[i - 1].setEndPoint(layout.x(i * gridStep),
                         lowerBound);
-                this.add(decade);
             }
-            Integer thisYear = startYear + (i - 1) * 10;
-            GLabel year = new GLabel(thisYear.toString());
-            this.add(year, lineInterval * (i - 1), lowerBound
+            GLabel year = yearLabels[i - 1];
+            year.setLocation(layout.x((i - 1) * gridStep), lowerBound
                     - (GRAPH_MARGIN_SIZE - year.getHeight()));
         }
+        upperLine.setStartPoint(0, GRAPH_MARGIN_SIZE);
+        upperLine.setEndPoint(layout.getWidth(), GRAPH_MARGIN_SIZE);
+        lowerLine.setStartPoint(0, lowerBound - GRAPH_MARGIN_SIZE);
+        lowerLine.setEndPoint(layout.getWidth(), lowerBound - GRAPH_MARGIN_SIZE);
+    }
 
-        GLine upperLine = new GLine(0, GRAPH_MARGIN_SIZE, this.getWidth(),
-                GRAPH_MARGIN_SIZE);
-        GLine lowerLine = new GLine(0, lowerBound - GRAPH_MARGIN_SIZE,
-                this.getWidth(), lowerBound - GRAPH_MARGIN_SIZE);
-        this.add(upperLine);
-        this.add(lowerLine);
+    private void setGridVisible(boolean visible) {
+        for (GLine line : decadeLines) {
+            line.setVisible(visible);
+        }
+        for (GLabel label : yearLabels) {
+            label.setVisible(visible);
+        }
+        upperLine.setVisible(visible);
+        lowerLine.setVisible(visible);
+    }
+
+    /**
+     * The graphical objects that draw one entry: a line for each segment of
+     * its graph, and a label with the name and rank at each labeled decade.
+     */
+    private static class Series {
+        private NameSurferEntry entry;
+        private Color color;
+        private int[] segments = new int[0];
+        private GLine[] lines = new GLine[0];
+        private int[] labeled = new int[0];
+        private GLabel[] labels = new GLabel[0];
+        private int detail = -1;
+        private int stride;
+
+        Series(NameSurferEntry entry, int i) {
+            this.entry = entry;
+            color = NameSurferLayout.chooseColor(i);
+        }
+
+        /**
+         * Makes sure the lines on the canvas are the ones for the points of
+         * the given layout, and the labels the ones for the given level of
+         * detail, replacing them only if they are not.
+         */
+        void prepare(NameSurferLayout layout, int detail, GCanvas canvas) {
+            if (layout.getStride() != stride) {
+                stride = layout.getStride();
+                for (GLine line : lines) {
+                    canvas.remove(line);
+                }
+                segments = NameSurferDetailPolicy.segmentStarts(entry, layout);
+                lines = new GLine[segments.length];
+                for (int k = 0; k < lines.length; k++) {
+                    lines[k] = new GLine(0, 0, 0, 0);
+                    lines[k].setColor(color);
+                    canvas.add(lines[k]);
+                }
+                this.detail = -1;
+            }
+            setDetail(detail, layout, canvas);
+        }
+
+        void removeFrom(GCanvas canvas) {
+            for (GLine line : lines) {
+                canvas.remove(line);
+            }
+            for (GLabel label : labels) {
+                canvas.remove(label);
+            }
+        }
+
+        /**
+         * Replaces the labels on the canvas with the ones for the given level
+         * of detail, unless it is the level already shown.
+         */
+        private void setDetail(int detail, NameSurferLayout layout,
+                GCanvas canvas) {
+            if (detail == this.detail) {
+                return;
+            }
+            this.detail = detail;
+            for (GLabel label : labels) {
+                canvas.remove(label);
+            }
+            labeled = NameSurferDetailPolicy.labeledDecades(entry, detail,
+                    layout);
+            labels = new GLabel[labeled.length];
+            for (int k = 0; k < labels.length; k++) {
+                labels[k] = new GLabel(NameSurferLayout.label(entry,
+                        labeled[k]));
+                canvas.add(labels[k]);
+            }
+        }
+
+        /**
+         * Moves the lines and labels to fit the given layout, hiding the
+         * labels that would start outside the canvas.
+         */
+        void layout(NameSurferLayout layout) {
+            for (int k = 0; k < lines.length; k++) {
+                int start = layout.column(segments[k]);
+                int end = layout.column((k + 1 < segments.length)
+                        ? segments[k + 1] : layout.getPointCount() - 1);
+                lines[k].setStartPoint(layout.x(start),
+                        layout.y(entry.getRank(start)));
+                lines[k].setEndPoint(layout.x(end),
+                        layout.y(entry.getRank(end)));
+            }
+            for (int k = 0; k < labels.length; k++) {
+                double x = layout.x(labeled[k]);
+                double y = layout.y(entry.getRank(labeled[k]));
+                labels[k].setLocation(x, y);
+                labels[k].setVisible(x < layout.getWidth() && y >= 0
+                        && y <= layout.getHeight());
+            }
+        }
     }
 
     /* Implementation of the ComponentListener interface */
@@ -215,7 +400,7 @@ public class NameSurferGraph extends GCanvas implements NameSurferConstants,
     }
 
     public void componentResized(ComponentEvent e) {
-        update();
+        scheduler.requestRedraw();
     }
 
     public void componentShown(ComponentEvent e) {
@@ -0,0 +1,153 @@
+/*
+ * File: NameSurferHistogram.java
+ * ------------------------------
+ * This class counts how often each value of a measurement, such as the
+ * time a lookup took, was seen, in the style of HdrHistogram.  Values are
+ * grouped into buckets whose width grows with the value: below 64 every
+ * value has a bucket of its own, and above that each power of two is
+ * split into 32 buckets, so any percentile is reported within about 3% of
+ * the true value using a fixed table of under 2,000 counts.  Recording a
+ * value is a few array increments and takes no lock, so any number of
+ * threads can record at once.
+ */
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class NameSurferHistogram {
+
+    /* Each power of two above 2 * SUB_BUCKETS is split into SUB_BUCKETS */
+    private static final int SUB_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = (63 - SUB_BITS) * SUB_BUCKETS
+            + SUB_BUCKETS;
+
+    private final String name;
+    private final String unit;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Creates an empty histogram.
+     * @param name, String, what is measured, as shown in reports.
+     * @param unit, String, the unit of the values, as shown in reports.
+     */
+    public NameSurferHistogram(String name, String unit) {
+        this.name = name;
+        this.unit = unit;
+    }
+
+    /**
+     * Records one value.  Negative values are recorded as 0.
+     */
+    public void record(long value) {
+        value = Math.max(value, 0);
+        counts.incrementAndGet(bucket(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long seen = max.get();
+        while (value > seen && !max.compareAndSet(seen, value)) {
+            seen = max.get();
+        }
+    }
+
+    /**
+     * Returns the bucket that holds the given value.
+     */
+    private static int bucket(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    /**
+     * Returns the largest value that falls in the given bucket.
+     */
+    private static long highestInBucket(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long top = bucket - shift * SUB_BUCKETS;
+        return ((top + 1) << shift) - 1;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getUnit() {
+        return unit;
+    }
+
+    /**
+     * Returns the number of values recorded.
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Returns the mean of the values recorded, or 0 if there are none.
+     */
+    public double getMean() {
+        long n = count.get();
+        return (n == 0) ? 0 : (double) sum.get() / n;
+    }
+
+    /**
+     * Returns the largest value recorded.
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Returns the value that the given percentage of the recorded values
+     * are at or below, to within the width of its bucket.
+     * @param percentile, double, between 0 and 100.
+     * @return long, the value, or 0 if no values were recorded.
+     */
+    public long getPercentile(double percentile) {
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(n * percentile / 100));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += counts.get(bucket);
+            if (seen >= rank) {
+                return Math.min(highestInBucket(bucket), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Forgets every value recorded so far.  Values recorded while the
+     * histogram is being reset may or may not be kept.
+     */
+    public void reset() {
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            counts.set(bucket, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    /**
+     * Returns one line with the count, mean, median, 99th percentile and
+     * maximum.
+     */
+    public String toString() {
+        return String.format("%-16s %10d  mean %10.0f  p50 %10d  p99 %10d  "
+                + "max %10d %s", name, getCount(), getMean(),
+                getPercentile(50), getPercentile(99), getMax(), unit);
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * File: NameSurferIndex.java
+ * --------------------------
+ * This interface describes the storage behind a NameSurferDataBase.  Every
+ * name in the index is stored in a row, and rows are numbered from 0 to
+ * size() - 1.  The index is either built in memory from the text data file
+ * or served straight from a binary snapshot of it.
+ */
+
+public interface NameSurferIndex {
+
+    /**
+     * Returns the row of the given name, or -1 if the name is not in the
+     * index.  Case does not matter, and the lookup creates no objects.
+     */
+    public int find(CharSequence name);
+
+    /**
+     * Returns the entry stored in the given row.
+     */
+    public NameSurferEntry entryAt(int row);
+
+    /**
+     * Returns the name stored in the given row, as it appears in the data
+     * file.
+     */
+    public String nameAt(int row);
+
+    /**
+     * Returns the rank of the name in the given row for the given decade.
+     */
+    public int rankAt(int row, int decade);
+
+    /**
+     * Returns the time axis and rank range of the names in the index.
+     */
+    public NameSurferAxis getAxis();
+
+    /**
+     * Returns the statistics of the names in the index.
+     */
+    public NameSurferStatistics getStatistics();
+
+    /**
+     * Returns the number of names in the index.
+     */
+    public int size();
+}
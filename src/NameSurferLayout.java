@@ -0,0 +1,202 @@
+/*
+ * File: NameSurferLayout.java
+ * ---------------------------
+ * This class holds the layout math shared by everything that draws the
+ * NameSurfer graph: where each decade goes across the graph, where each
+ * rank goes down it, how a rank is labeled, and which color each graph is
+ * drawn in.  The columns of the time axis are spaced evenly across the
+ * width, and ranks 1 to the largest rank of the axis fill the height less
+ * a margin of GRAPH_MARGIN_SIZE at the top and the bottom.  A rank of 0,
+ * meaning the name was not on the chart that decade, is drawn at the
+ * bottom.
+ *
+ * When the axis has more columns than the width can show, such as yearly
+ * ranks in a small window, graphs are drawn through every stride-th column
+ * only, so that points are at least MIN_POINT_SPACING pixels apart, and
+ * the grid only has a line every few columns.
+ */
+
+import java.awt.Color;
+
+public class NameSurferLayout implements NameSurferConstants {
+
+    /** The smallest distance in pixels between two points of a graph */
+    public static final int MIN_POINT_SPACING = 2;
+
+    /** The smallest distance in pixels between two lines of the grid */
+    public static final int MIN_GRID_SPACING = 50;
+
+    /* The numbers of years the grid lines may be apart, smallest first */
+    private static final int[] GRID_YEARS = { 1, 2, 5, 10, 20, 25, 50, 100,
+            200, 500, 1000 };
+
+    private NameSurferAxis axis;
+    private int width;
+    private int height;
+    private double columnWidth;
+    private double heightRatio;
+    private int stride;
+    private int gridStep;
+
+    /**
+     * Creates a layout for a graph of the given size over the bundled data
+     * file's axis.
+     */
+    public NameSurferLayout(int width, int height) {
+        this(NameSurferAxis.DEFAULT, width, height);
+    }
+
+    /**
+     * Creates a layout for a graph of the given size over the given axis.
+     */
+    public NameSurferLayout(NameSurferAxis axis, int width, int height) {
+        this.axis = axis;
+        setSize(width, height);
+    }
+
+    /**
+     * Changes the size of the graph.
+     */
+    public void setSize(int width, int height) {
+        this.width = width;
+        this.height = height;
+        int count = axis.getCount();
+        columnWidth = (double) width / count;
+        heightRatio = (double) (height - 2 * GRAPH_MARGIN_SIZE)
+                / axis.getMaxRank();
+        stride = (columnWidth >= MIN_POINT_SPACING) ? 1
+                : (int) Math.ceil(MIN_POINT_SPACING / Math.max(columnWidth,
+                        1e-9));
+        gridStep = 0;
+        for (int years : GRID_YEARS) {
+            int step = years / axis.getStep();
+            if (years % axis.getStep() == 0
+                    && step * columnWidth >= MIN_GRID_SPACING) {
+                gridStep = step;
+                break;
+            }
+        }
+        if (gridStep == 0) {
+            gridStep = Math.max(1, (int) Math.ceil(MIN_GRID_SPACING
+                    / Math.max(columnWidth, 1e-9)));
+        }
+    }
+
+    /**
+     * Changes the time axis of the graph.
+     */
+    public void setAxis(NameSurferAxis axis) {
+        this.axis = axis;
+        setSize(width, height);
+    }
+
+    public NameSurferAxis getAxis() {
+        return axis;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the x coordinate of the given column of the axis.
+     */
+    public double x(int column) {
+        return columnWidth * column;
+    }
+
+    /**
+     * Returns the y coordinate of the given rank.
+     */
+    public double y(int rank) {
+        return offChart(rank) * heightRatio + GRAPH_MARGIN_SIZE;
+    }
+
+    /**
+     * Finds out if the rank is zero.  If it is assigns the largest rank of the
+     * axis so that the graph displays it at the bottom of the screen.
+     * @param rank, int.
+     * @return rank, int.
+     */
+    public int offChart(int rank) {
+        if (rank == 0) {
+            return axis.getMaxRank();
+        }
+        return rank;
+    }
+
+    /**
+     * Returns the number of columns between two points of a graph.
+     */
+    public int getStride() {
+        return stride;
+    }
+
+    /**
+     * Returns the number of points each graph is drawn through.
+     */
+    public int getPointCount() {
+        return (axis.getCount() - 2) / stride + 2;
+    }
+
+    /**
+     * Returns the column of the axis that the given point of a graph is
+     * drawn at.  The last point is always the last column.
+     */
+    public int column(int point) {
+        return Math.min(point * stride, axis.getCount() - 1);
+    }
+
+    /**
+     * Returns the number of columns between two lines of the grid.
+     */
+    public int getGridStep() {
+        return gridStep;
+    }
+
+    /**
+     * Returns the number of labeled columns of the grid, which are the
+     * columns 0, getGridStep(), 2 * getGridStep(), and so on.
+     */
+    public int getGridCount() {
+        return (axis.getCount() - 1) / gridStep + 1;
+    }
+
+    /**
+     * Returns the label drawn at the given column of an entry's graph: the
+     * name followed by the rank, or by an * if the name was not on the chart.
+     */
+    public static String label(NameSurferEntry entry, int column) {
+        int rank = entry.getRank(column);
+        return " " + entry.getName() + " " + ((rank == 0) ? "*" : rank);
+    }
+
+    /**
+     * Returns the label of the given column on the grid.
+     */
+    public String yearLabel(int column) {
+        return Integer.toString(axis.yearOf(column));
+    }
+
+    /**
+     * Assigns the color of the graph using a cycle of four colors.
+     * @param i
+     * @return Color, red, blue, magenta, or black.
+     */
+    public static Color chooseColor(int i) {
+        switch (i % 4) {
+        case 0:
+            return Color.RED;
+        case 1:
+            return Color.BLUE;
+        case 2:
+            return Color.MAGENTA;
+        default:
+            return Color.BLACK;
+        }
+    }
+}
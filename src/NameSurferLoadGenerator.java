@@ -0,0 +1,161 @@
+/*
+ * File: NameSurferLoadGenerator.java
+ * ----------------------------------
+ * This program measures how many requests a NameSurferServer answers per
+ * second.  A number of threads send requests as fast as they can for a
+ * fixed time: mostly single name lookups, skewed so that a small set of
+ * names is asked for most often, with some top name and batch requests
+ * mixed in.  The names come from the same data file the server reads.
+ * Every request's latency goes into one NameSurferHistogram, so a long
+ * or fast run counts every request in constant memory.  When the time is
+ * up the request rate and latency percentiles are printed.
+ *
+ *     java NameSurferLoadGenerator http://localhost:8080 names-data.txt 16 10
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class NameSurferLoadGenerator {
+
+    /* The number of names in one batch request */
+    private static final int BATCH_SIZE = 20;
+
+    /* Out of every 100 requests, how many are batch and top requests */
+    private static final int BATCH_PERCENT = 5;
+    private static final int TOP_PERCENT = 5;
+
+    private String base;
+    private NameSurferIndex index;
+    private AtomicLong errors = new AtomicLong();
+
+    /**
+     * Creates a load generator for the server at the given address, asking
+     * for the names in the given index.
+     */
+    public NameSurferLoadGenerator(String base, NameSurferIndex index) {
+        this.base = base;
+        this.index = index;
+    }
+
+    /**
+     * Sends requests from the given number of threads for the given number
+     * of seconds and prints the results.
+     */
+    public void run(int threads, int seconds) throws InterruptedException {
+        final long end = System.nanoTime() + seconds * 1000000000L;
+        final NameSurferHistogram latencies =
+                new NameSurferHistogram("request", "ns");
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            workers[t] = new Thread(new Runnable() {
+                public void run() {
+                    Random random = new Random(id);
+                    while (System.nanoTime() < end) {
+                        long start = System.nanoTime();
+                        request(random);
+                        latencies.record(System.nanoTime() - start);
+                    }
+                }
+            });
+            workers[t].start();
+        }
+        for (int t = 0; t < threads; t++) {
+            workers[t].join();
+        }
+        long total = latencies.getCount();
+        System.out.printf("%d requests in %d s from %d threads: %.0f per "
+                + "second, %d errors%n", total, seconds, threads,
+                (double) total / seconds, errors.get());
+        if (total > 0) {
+            System.out.printf("latency p50 %.2f ms, p99 %.2f ms, "
+                    + "max %.2f ms%n", latencies.getPercentile(50) / 1e6,
+                    latencies.getPercentile(99) / 1e6,
+                    latencies.getMax() / 1e6);
+        }
+    }
+
+    /**
+     * Sends one request, picking its kind and names at random.
+     */
+    private void request(Random random) {
+        int kind = random.nextInt(100);
+        String path;
+        if (kind < BATCH_PERCENT) {
+            StringBuilder names = new StringBuilder();
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                if (i > 0) {
+                    names.append(',');
+                }
+                names.append(pickName(random));
+            }
+            path = "/names?n=" + encode(names.toString());
+        } else if (kind < BATCH_PERCENT + TOP_PERCENT) {
+            NameSurferAxis axis = index.getAxis();
+            int year = axis.yearOf(random.nextInt(axis.getCount()));
+            path = "/top?decade=" + year + "&k=" + (10 + random.nextInt(3) * 10);
+        } else {
+            path = "/name/" + encode(pickName(random)).replace("+", "%20");
+        }
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL(base
+                    + path).openConnection();
+            int status = connection.getResponseCode();
+            InputStream in = (status < 400) ? connection.getInputStream()
+                    : connection.getErrorStream();
+            byte[] buffer = new byte[8192];
+            while (in != null && in.read(buffer) >= 0) {
+                // Read the whole answer so the connection can be reused.
+            }
+            if (in != null) {
+                in.close();
+            }
+            if (status != 200) {
+                errors.incrementAndGet();
+            }
+        } catch (IOException e) {
+            errors.incrementAndGet();
+        }
+    }
+
+    /**
+     * Picks a name so that the first few percent of the names get most of
+     * the requests.
+     */
+    private String pickName(Random random) {
+        double r = random.nextDouble();
+        return index.nameAt((int) (index.size() * r * r * r));
+    }
+
+    private static String encode(String text) {
+        try {
+            return URLEncoder.encode(text, "UTF-8");
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Runs the load generator.
+     * @param args, the server address, the data file, and optionally the
+     * number of threads and seconds.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length < 2 || args.length > 4) {
+            System.err.println("usage: java NameSurferLoadGenerator <server> "
+                    + "<data file> [threads] [seconds]");
+            System.exit(1);
+        }
+        int threads = (args.length > 2) ? Integer.parseInt(args[2]) : 16;
+        int seconds = (args.length > 3) ? Integer.parseInt(args[3]) : 10;
+        NameSurferDataBase records = new NameSurferDataBase(args[1]);
+        new NameSurferLoadGenerator(args[0], records.getIndex()).run(threads,
+                seconds);
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * File: NameSurferMetrics.java
+ * ----------------------------
+ * This class records where NameSurfer spends its time: how long loading
+ * the database, looking up names, parsing entries and redrawing the graph
+ * take, how many bytes each redraw allocates, and how often lookups miss
+ * and caches are hit.  The measurements are kept in NameSurferHistograms
+ * and counters shared by the whole program, and can be read through JMX,
+ * printed at a fixed interval, or read directly.
+ *
+ * Recording is off unless the program is started with
+ * -Dnamesurfer.metrics=true or it is turned on with enable, here or through
+ * JMX.  Starting with -Dnamesurfer.metrics.dump=60 also prints a report
+ * every minute.  Code that is measured calls start() before the work and
+ * recordSince() after it; while recording is off, start() returns 0
+ * without reading the clock and recordSince() returns at once, so the cost
+ * is one field read and a branch.
+ */
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+public class NameSurferMetrics implements NameSurferMetricsMXBean {
+
+    /** The name the metrics are registered under in JMX */
+    public static final String OBJECT_NAME = "NameSurfer:type=Metrics";
+
+    private static volatile boolean enabled = Boolean.getBoolean(
+            "namesurfer.metrics");
+
+    /** The time to load the database or reload it, in nanoseconds */
+    public static final NameSurferHistogram LOAD = new NameSurferHistogram(
+            "load", "ns");
+
+    /** The time taken by findEntry, in nanoseconds */
+    public static final NameSurferHistogram FIND_ENTRY =
+            new NameSurferHistogram("findEntry", "ns");
+
+    /** The time to parse a NameSurferEntry from a line, in nanoseconds */
+    public static final NameSurferHistogram PARSE = new NameSurferHistogram(
+            "parse", "ns");
+
+    /** The time taken by NameSurferGraph.update, in nanoseconds */
+    public static final NameSurferHistogram UPDATE = new NameSurferHistogram(
+            "update", "ns");
+
+    /** The bytes allocated by NameSurferGraph.update */
+    public static final NameSurferHistogram UPDATE_BYTES =
+            new NameSurferHistogram("update alloc", "bytes");
+
+    /** The number of findEntry calls for names that are not in the database */
+    public static final AtomicLong LOOKUP_MISSES = new AtomicLong();
+
+    /** The number of answers found in a cache */
+    public static final AtomicLong CACHE_HITS = new AtomicLong();
+
+    /** The number of answers that had to be built and were then cached */
+    public static final AtomicLong CACHE_MISSES = new AtomicLong();
+
+    private static final NameSurferHistogram[] HISTOGRAMS = { LOAD,
+            FIND_ENTRY, PARSE, UPDATE, UPDATE_BYTES };
+
+    private static final ThreadMXBean THREADS =
+            ManagementFactory.getThreadMXBean();
+
+    private static Thread dumper;
+
+    private NameSurferMetrics() {
+    }
+
+    /**
+     * Returns true if metrics are being recorded.
+     */
+    public static boolean enabled() {
+        return enabled;
+    }
+
+    /**
+     * Turns the recording of metrics on or off.
+     */
+    public static void enable(boolean on) {
+        enabled = on;
+    }
+
+    /**
+     * Registers the metrics with JMX and, if the namesurfer.metrics.dump
+     * property gives a number of seconds, prints a report to standard output
+     * that often.  Programs call this once when they start.
+     */
+    public static void install() {
+        registerMBean();
+        int seconds = Integer.getInteger("namesurfer.metrics.dump", 0);
+        if (seconds > 0) {
+            startDump(System.out, seconds);
+        }
+    }
+
+    /**
+     * Returns the current time in nanoseconds to pass to recordSince, or 0
+     * if metrics are not being recorded.
+     */
+    public static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records the time since start in the given histogram, unless start is
+     * 0 because metrics were off when the work began.
+     */
+    public static void recordSince(NameSurferHistogram histogram, long start) {
+        if (start != 0) {
+            histogram.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Adds one to the given counter if metrics are being recorded.
+     */
+    public static void count(AtomicLong counter) {
+        if (enabled) {
+            counter.incrementAndGet();
+        }
+    }
+
+    /**
+     * Returns the number of bytes the current thread has allocated so far,
+     * or 0 if metrics are off or the JVM can't tell.
+     */
+    public static long allocatedBytes() {
+        if (enabled && THREADS instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) THREADS)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    /**
+     * Records the bytes allocated by the current thread since the given
+     * count from allocatedBytes.
+     */
+    public static void recordAllocatedSince(NameSurferHistogram histogram,
+            long start) {
+        if (start != 0) {
+            histogram.record(allocatedBytes() - start);
+        }
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server, so they can be
+     * read by JConsole and other JMX clients.  Registering twice does
+     * nothing.
+     */
+    public static synchronized void registerMBean() {
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(
+                    name)) {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(
+                        new NameSurferMetrics(), name);
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException("Can't register " + OBJECT_NAME,
+                    e);
+        }
+    }
+
+    /**
+     * Prints a report to the given stream every given number of seconds,
+     * from a background thread, until stopDump is called.
+     */
+    public static synchronized void startDump(final PrintStream out,
+            final int seconds) {
+        stopDump();
+        dumper = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    while (true) {
+                        Thread.sleep(seconds * 1000L);
+                        out.print(report());
+                        out.flush();
+                    }
+                } catch (InterruptedException e) {
+                    // Stopped by stopDump.
+                }
+            }
+        }, "NameSurferMetrics dump");
+        dumper.setDaemon(true);
+        dumper.start();
+    }
+
+    /**
+     * Stops printing reports.
+     */
+    public static synchronized void stopDump() {
+        if (dumper != null) {
+            dumper.interrupt();
+            dumper = null;
+        }
+    }
+
+    /**
+     * Returns a report of every histogram and counter, one per line.
+     */
+    public static String report() {
+        StringBuilder report = new StringBuilder();
+        for (NameSurferHistogram histogram : HISTOGRAMS) {
+            report.append(histogram).append('\n');
+        }
+        report.append(String.format("lookup misses %d, cache hits %d, "
+                + "cache misses %d%n", LOOKUP_MISSES.get(), CACHE_HITS.get(),
+                CACHE_MISSES.get()));
+        return report.toString();
+    }
+
+    /* Implementation of the NameSurferMetricsMXBean interface */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean on) {
+        enable(on);
+    }
+
+    public Map<String, Long> getValues() {
+        Map<String, Long> values = new LinkedHashMap<String, Long>();
+        for (NameSurferHistogram histogram : HISTOGRAMS) {
+            String prefix = histogram.getName().replace(' ', '.') + ".";
+            values.put(prefix + "count", histogram.getCount());
+            values.put(prefix + "mean", Math.round(histogram.getMean()));
+            values.put(prefix + "p50", histogram.getPercentile(50));
+            values.put(prefix + "p99", histogram.getPercentile(99));
+            values.put(prefix + "max", histogram.getMax());
+        }
+        values.put("lookupMisses", LOOKUP_MISSES.get());
+        values.put("cacheHits", CACHE_HITS.get());
+        values.put("cacheMisses", CACHE_MISSES.get());
+        return values;
+    }
+
+    public String getReport() {
+        return report();
+    }
+
+    public void reset() {
+        for (NameSurferHistogram histogram : HISTOGRAMS) {
+            histogram.reset();
+        }
+        LOOKUP_MISSES.set(0);
+        CACHE_HITS.set(0);
+        CACHE_MISSES.set(0);
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * File: NameSurferMetricsMXBean.java
+ * ----------------------------------
+ * This interface describes what NameSurferMetrics shows through JMX, for
+ * example in JConsole under NameSurfer:type=Metrics.
+ */
+
+import java.util.Map;
+
+public interface NameSurferMetricsMXBean {
+
+    /**
+     * Returns true if metrics are being recorded.
+     */
+    public boolean isEnabled();
+
+    /**
+     * Turns the recording of metrics on or off.
+     */
+    public void setEnabled(boolean enabled);
+
+    /**
+     * Returns every counter, and the count, mean, median, 99th percentile
+     * and maximum of every histogram, by name.
+     */
+    public Map<String, Long> getValues();
+
+    /**
+     * Returns the same values as a text report.
+     */
+    public String getReport();
+
+    /**
+     * Forgets every value recorded so far.
+     */
+    public void reset();
+}
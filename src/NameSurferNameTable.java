@@ -0,0 +1,171 @@
+/*
+ * File: NameSurferNameTable.java
+ * ------------------------------
+ * This class maps names to numbers, such as the row a name is stored in,
+ * without regard to case.  It is a hash table with open addressing: the
+ * names are kept in one array and their hash codes and numbers side by
+ * side in another, so a probe touches little memory, and a name that
+ * collides with another moves on to the next free slot.  Names are hashed
+ * and compared one character at a time straight from the CharSequence
+ * they are looked up with, so a lookup creates no objects, and the names
+ * are kept as they were spelled when they were put in the table.
+ *
+ * Two names are the same if each pair of their characters is equal, or
+ * equal after both are converted to upper case or to lower case, as in
+ * String.equalsIgnoreCase.
+ */
+
+public class NameSurferNameTable {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private String[] names;
+    private int[] entries;
+    private int size;
+
+    /**
+     * Creates an empty table with room for the given number of names before
+     * it has to grow.
+     */
+    public NameSurferNameTable(int expected) {
+        int capacity = INITIAL_CAPACITY;
+        while (capacity < 2 * expected) {
+            capacity *= 2;
+        }
+        names = new String[capacity];
+        entries = new int[2 * capacity];
+    }
+
+    /*
+     * Creates a table holding the same names and numbers as another.
+     */
+    private NameSurferNameTable(NameSurferNameTable other) {
+        names = other.names.clone();
+        entries = other.entries.clone();
+        size = other.size;
+    }
+
+    /**
+     * Returns a copy of the table, which can be changed without changing
+     * this one.
+     */
+    public NameSurferNameTable copy() {
+        return new NameSurferNameTable(this);
+    }
+
+    /**
+     * Returns the number stored for the given name, or -1 if the name is not
+     * in the table.
+     */
+    public int get(CharSequence name) {
+        int hash = hash(name);
+        int mask = names.length - 1;
+        for (int slot = hash & mask; names[slot] != null;
+                slot = (slot + 1) & mask) {
+            if (entries[2 * slot] == hash && sameName(names[slot], name)) {
+                return entries[2 * slot + 1];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Stores a number for the given name, replacing the one stored for the
+     * name before, if any, along with the spelling of the name.
+     * @return int, the number stored for the name before, or -1.
+     */
+    public int put(String name, int value) {
+        if (2 * (size + 1) > names.length) {
+            grow();
+        }
+        int hash = hash(name);
+        int mask = names.length - 1;
+        int slot = hash & mask;
+        while (names[slot] != null) {
+            if (entries[2 * slot] == hash && sameName(names[slot], name)) {
+                int old = entries[2 * slot + 1];
+                names[slot] = name;
+                entries[2 * slot + 1] = value;
+                return old;
+            }
+            slot = (slot + 1) & mask;
+        }
+        names[slot] = name;
+        entries[2 * slot] = hash;
+        entries[2 * slot + 1] = value;
+        size++;
+        return -1;
+    }
+
+    /**
+     * Returns the number of names in the table.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Doubles the number of slots and puts every name in its new slot.
+     */
+    private void grow() {
+        String[] oldNames = names;
+        int[] oldEntries = entries;
+        names = new String[oldNames.length * 2];
+        entries = new int[2 * names.length];
+        int mask = names.length - 1;
+        for (int i = 0; i < oldNames.length; i++) {
+            if (oldNames[i] != null) {
+                int slot = oldEntries[2 * i] & mask;
+                while (names[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                names[slot] = oldNames[i];
+                entries[2 * slot] = oldEntries[2 * i];
+                entries[2 * slot + 1] = oldEntries[2 * i + 1];
+            }
+        }
+    }
+
+    /**
+     * Returns a hash code of the name that is the same for every spelling
+     * of it that sameName accepts.  The bits are mixed so that names that
+     * differ only in their last letter don't fill neighboring slots.
+     */
+    public static int hash(CharSequence name) {
+        int h = 0;
+        for (int i = 0; i < name.length(); i++) {
+            h = 31 * h + fold(name.charAt(i));
+        }
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Returns true if the two names are the same without regard to case.
+     */
+    public static boolean sameName(String a, CharSequence b) {
+        if (a.length() != b.length()) {
+            return false;
+        }
+        for (int i = 0; i < a.length(); i++) {
+            char c1 = a.charAt(i);
+            char c2 = b.charAt(i);
+            if (c1 != c2 && fold(c1) != fold(c2)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the character that stands for every case of c.  Letters of
+     * the ASCII alphabet, which is almost every name, are converted without
+     * looking up the Unicode tables.
+     */
+    private static int fold(char c) {
+        if (c < 128) {
+            return (c >= 'A' && c <= 'Z') ? c + ('a' - 'A') : c;
+        }
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * File: NameSurferParser.java
+ * ---------------------------
+ * This class reads the names data file as raw bytes.  The file is memory
+ * mapped, and every line is decoded in place: the rank digits are turned
+ * into numbers as they are scanned, and the only object made per line is
+ * the String holding the name.  Malformed lines are reported with the file
+ * name and line number instead of a stack trace.  Large files are split at
+ * line boundaries and the pieces are parsed in parallel.  If the first
+ * line of the file starts with '#', it is a header giving the time axis
+ * and rank range of the file, as described in NameSurferAxis.
+ */
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import acm.util.ErrorException;
+
+public class NameSurferParser implements NameSurferConstants {
+
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    /* The smallest piece of a file worth handing to another thread */
+    private static final int MIN_CHUNK_SIZE = 1 << 20;
+
+    /* The number of pieces made per thread, so that uneven pieces even out */
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    /* The average length of a line in the data file, used to size tables */
+    private static final int ESTIMATED_LINE_LENGTH = 40;
+
+    private String source;
+    private NameSurferAxis axis;
+    private byte[] name = new byte[64];
+    private short[] row;
+
+    /**
+     * Creates a new parser.
+     * @param source, String, the name of the data being parsed, used in error
+     * messages.
+     * @param axis, NameSurferAxis, the time axis and rank range of the data.
+     */
+    public NameSurferParser(String source, NameSurferAxis axis) {
+        this.source = source;
+        this.axis = axis;
+        row = new short[axis.getCount()];
+    }
+
+    /**
+     * Maps the whole file into memory for reading.
+     * @param filename, String, the file to map.
+     * @return ByteBuffer, the contents of the file.
+     */
+    public static ByteBuffer map(String filename) {
+        try {
+            RandomAccessFile file = new RandomAccessFile(filename, "r");
+            try {
+                FileChannel channel = file.getChannel();
+                if (channel.size() > Integer.MAX_VALUE) {
+                    throw new ErrorException(filename + " is too large to load");
+                }
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                        channel.size());
+            } finally {
+                file.close();
+            }
+        } catch (IOException e) {
+            throw new ErrorException("Can't read " + filename + ": "
+                    + e.getMessage());
+        }
+    }
+
+    /**
+     * Loads the whole file into a new table, parsing it on up to parallelism
+     * threads.  The file is cut into pieces at line boundaries, every piece is
+     * parsed into a table of its own, and the pieces are then merged in file
+     * order.  The result is exactly the same as parsing the file on one
+     * thread, including which record is kept when a name appears twice.
+     * @param filename, String, the file to load.
+     * @param parallelism, int, the largest number of threads to use.
+     * @return NameSurferRankTable, the records of the file.
+     */
+    public static NameSurferRankTable load(String filename, int parallelism) {
+        return load(map(filename), filename, parallelism);
+    }
+
+    /**
+     * Loads a file that has already been mapped into memory.
+     * @param data, ByteBuffer, the contents of the data file.
+     * @param filename, String, the name of the file, used in error messages.
+     * @param parallelism, int, the largest number of threads to use.
+     * @return NameSurferRankTable, the records of the file.
+     */
+    public static NameSurferRankTable load(ByteBuffer data, String filename,
+            int parallelism) {
+        NameSurferAxis axis = readAxis(data, filename);
+        int size = data.limit();
+        int first = hasHeader(data) ? nextLine(data, 0, size) : 0;
+        int chunks = Math.min(parallelism * CHUNKS_PER_THREAD,
+                (size - first) / MIN_CHUNK_SIZE);
+        int capacity = (size - first) / ESTIMATED_LINE_LENGTH;
+        if (parallelism <= 1 || chunks <= 1) {
+            NameSurferRankTable table = new NameSurferRankTable(axis, capacity);
+            new NameSurferParser(filename, axis).parse(data, first, size,
+                    table);
+            return table;
+        }
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            List<ForkJoinTask<NameSurferRankTable>> tasks =
+                    new ArrayList<ForkJoinTask<NameSurferRankTable>>();
+            int start = first;
+            for (int i = 1; i <= chunks && start < size; i++) {
+                int end = (i == chunks) ? size : nextLine(data, first
+                        + (int) ((long) (size - first) * i / chunks), size);
+                tasks.add(pool.submit(parseTask(filename, axis, data, start,
+                        end)));
+                start = end;
+            }
+            NameSurferRankTable table = new NameSurferRankTable(axis, capacity);
+            for (ForkJoinTask<NameSurferRankTable> task : tasks) {
+                table.addAll(task.join());
+            }
+            return table;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Returns a task that parses the lines between start and end into a table
+     * of their own.
+     */
+    private static Callable<NameSurferRankTable> parseTask(
+            final String filename, final NameSurferAxis axis,
+            final ByteBuffer data, final int start, final int end) {
+        return new Callable<NameSurferRankTable>() {
+            public NameSurferRankTable call() {
+                NameSurferRankTable table = new NameSurferRankTable(axis,
+                        (end - start) / ESTIMATED_LINE_LENGTH);
+                new NameSurferParser(filename, axis).parse(data, start, end,
+                        table);
+                return table;
+            }
+        };
+    }
+
+    /**
+     * Returns the axis given by the header line of the data, or the DEFAULT
+     * axis if the data has no header.
+     */
+    public static NameSurferAxis readAxis(ByteBuffer data, String source) {
+        if (!hasHeader(data)) {
+            return NameSurferAxis.DEFAULT;
+        }
+        int pos = skipSpaces(data, 0, data.limit());
+        int end = pos;
+        while (end < data.limit() && !isLineEnd(data.get(end))) {
+            end++;
+        }
+        byte[] header = new byte[end - pos];
+        for (int i = 0; i < header.length; i++) {
+            header[i] = data.get(pos + i);
+        }
+        try {
+            NameSurferAxis axis = NameSurferAxis.parse(new String(header,
+                    CHARSET));
+            return axis.equals(NameSurferAxis.DEFAULT) ? NameSurferAxis.DEFAULT
+                    : axis;
+        } catch (IllegalArgumentException e) {
+            throw new ErrorException(source + ", line 1: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns true if the first line of the data is a header line.
+     */
+    private static boolean hasHeader(ByteBuffer data) {
+        int pos = skipSpaces(data, 0, data.limit());
+        return pos < data.limit() && data.get(pos) == '#';
+    }
+
+    /**
+     * Returns the position of the start of the first line that begins after
+     * pos, or end if there is none.
+     */
+    private static int nextLine(ByteBuffer data, int pos, int end) {
+        while (pos < end && data.get(pos) != '\n') {
+            pos++;
+        }
+        return Math.min(pos + 1, end);
+    }
+
+    /**
+     * Parses the lines between start and end and adds every record to the
+     * table.  Blank lines are skipped.
+     * @param data, ByteBuffer, the contents of the data file.
+     * @param start, int, the position of the first byte of the first line.
+     * @param end, int, the position just past the last byte to parse.
+     * @param table, NameSurferRankTable, the table that receives the records.
+     * @return int, the number of records parsed.
+     */
+    public int parse(ByteBuffer data, int start, int end,
+            NameSurferRankTable table) {
+        int records = 0;
+        int pos = start;
+        while (pos < end) {
+            pos = skipSpaces(data, pos, end);
+            if (pos < end && isLineEnd(data.get(pos))) {
+                pos++;
+                continue;
+            }
+            if (pos >= end) {
+                break;
+            }
+            pos = parseLine(data, pos, end, table);
+            records++;
+        }
+        return records;
+    }
+
+    /**
+     * Parses the line that starts at pos and returns the position just past
+     * its end.
+     */
+    private int parseLine(ByteBuffer data, int pos, int end,
+            NameSurferRankTable table) {
+        int lineStart = pos;
+        int length = 0;
+        while (pos < end && !isSpace(data.get(pos))
+                && !isLineEnd(data.get(pos))) {
+            if (length == name.length) {
+                byte[] bigger = new byte[name.length * 2];
+                System.arraycopy(name, 0, bigger, 0, length);
+                name = bigger;
+            }
+            name[length++] = data.get(pos++);
+        }
+        int decade = 0;
+        while (true) {
+            pos = skipSpaces(data, pos, end);
+            if (pos >= end || isLineEnd(data.get(pos))) {
+                break;
+            }
+            if (decade == row.length) {
+                throw error(data, lineStart, "expected " + row.length
+                        + " ranks but found more");
+            }
+            int rank = 0;
+            while (pos < end && !isSpace(data.get(pos))
+                    && !isLineEnd(data.get(pos))) {
+                byte b = data.get(pos);
+                if (b < '0' || b > '9') {
+                    throw error(data, lineStart, "rank for "
+                            + axis.yearOf(decade) + " is not a number");
+                }
+                rank = rank * 10 + (b - '0');
+                if (rank > axis.getMaxRank()) {
+                    throw error(data, lineStart, "rank for "
+                            + axis.yearOf(decade) + " is larger than "
+                            + axis.getMaxRank());
+                }
+                pos++;
+            }
+            row[decade++] = (short) rank;
+        }
+        if (decade != row.length) {
+            throw error(data, lineStart, "expected " + row.length
+                    + " ranks but found " + decade);
+        }
+        table.add(new String(name, 0, length, CHARSET), row, 0);
+        return pos;
+    }
+
+    /**
+     * Returns the position of the first byte at or after pos that is not a
+     * space or tab.
+     */
+    private static int skipSpaces(ByteBuffer data, int pos, int end) {
+        while (pos < end && isSpace(data.get(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+    private static boolean isLineEnd(byte b) {
+        return b == '\n' || b == '\r';
+    }
+
+    /**
+     * Creates the exception reported for a malformed line.  The line number
+     * is only worked out here, so the normal path never counts lines.
+     */
+    private ErrorException error(ByteBuffer data, int lineStart, String msg) {
+        int line = 1;
+        for (int i = 0; i < lineStart; i++) {
+            if (data.get(i) == '\n') {
+                line++;
+            }
+        }
+        return new ErrorException(source + ", line " + line + ": " + msg);
+    }
+}
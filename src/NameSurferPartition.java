@@ -0,0 +1,119 @@
+/*
+ * File: NameSurferPartition.java
+ * ------------------------------
+ * This class holds the ranks of one partition of a partitioned database,
+ * such as the names of one state and gender.  The names themselves live in
+ * a NameSurferDictionary shared by all partitions, so a partition only
+ * stores the dictionary id of each of its names and one row of ranks per
+ * name.  Rows are kept in order of id, and a name is found by looking up
+ * its id in the dictionary and then binary searching the ids of the
+ * partition.
+ */
+
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+public class NameSurferPartition implements NameSurferIndex {
+
+    private NameSurferDictionary dictionary;
+    private NameSurferAxis axis;
+    private int columns;
+    private int[] ids;
+    private short[] ranks;
+    private ShortBuffer rankView;
+    private NameSurferEntry[] views;
+    private NameSurferStatistics statistics;
+
+    /**
+     * Creates a partition holding the records of the given index, adding its
+     * names to the dictionary.
+     * @param dictionary, NameSurferDictionary, the names of every partition.
+     * @param source, NameSurferIndex, the records loaded from the data file.
+     */
+    public NameSurferPartition(NameSurferDictionary dictionary,
+            NameSurferIndex source) {
+        this.dictionary = dictionary;
+        axis = source.getAxis();
+        columns = axis.getCount();
+        int size = source.size();
+        String[] names = new String[size];
+        for (int row = 0; row < size; row++) {
+            names[row] = source.nameAt(row);
+        }
+        int[] dictionaryIds = dictionary.add(names);
+        long[] order = new long[size];
+        for (int row = 0; row < size; row++) {
+            order[row] = ((long) dictionaryIds[row] << 32) | row;
+        }
+        Arrays.sort(order);
+        ids = new int[size];
+        ranks = new short[size * columns];
+        for (int row = 0; row < size; row++) {
+            ids[row] = (int) (order[row] >>> 32);
+            int from = (int) order[row];
+            for (int j = 0; j < columns; j++) {
+                ranks[row * columns + j] = (short) source.rankAt(from, j);
+            }
+        }
+        rankView = ShortBuffer.wrap(ranks);
+        views = new NameSurferEntry[size];
+        statistics = new NameSurferStatistics(this);
+    }
+
+    /**
+     * Returns the row of the given name, or -1 if the name is not in this
+     * partition.
+     */
+    public int find(CharSequence name) {
+        int id = dictionary.find(name);
+        if (id < 0) {
+            return -1;
+        }
+        int row = Arrays.binarySearch(ids, id);
+        return (row < 0) ? -1 : row;
+    }
+
+    /**
+     * Returns the entry stored in the given row.  Entries are views over the
+     * packed ranks and are created only once per row.
+     */
+    public NameSurferEntry entryAt(int row) {
+        NameSurferEntry entry = views[row];
+        if (entry == null) {
+            entry = new NameSurferEntry(nameAt(row), rankView, row * columns,
+                    axis, statistics, row);
+            views[row] = entry;
+        }
+        return entry;
+    }
+
+    /**
+     * Returns the name stored in the given row, as it was first spelled in
+     * any partition.
+     */
+    public String nameAt(int row) {
+        return dictionary.nameAt(ids[row]);
+    }
+
+    /**
+     * Returns the rank of the name in the given row for the given decade.
+     */
+    public int rankAt(int row, int decade) {
+        return ranks[row * columns + decade] & 0xFFFF;
+    }
+
+    public NameSurferAxis getAxis() {
+        return axis;
+    }
+
+    public NameSurferStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Returns the number of names in this partition.
+     */
+    public int size() {
+        return ids.length;
+    }
+}
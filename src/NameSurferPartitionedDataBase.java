@@ -0,0 +1,196 @@
+/*
+ * File: NameSurferPartitionedDataBase.java
+ * ----------------------------------------
+ * This class keeps track of a catalog of data files, one per partition of
+ * the data such as a country, a state or a gender.  The catalog is a text
+ * file with one partition per line, giving the name of the partition and
+ * the data file it is read from:
+ *
+ *     CA-F  ca-female.txt
+ *     CA-M  ca-male.txt
+ *
+ * Data files are named relative to the catalog, and lines starting with #
+ * are ignored.  No data file is read until its partition is first asked
+ * for, so memory grows with the partitions that are used rather than with
+ * the size of the catalog.  The names of text data files are kept once in
+ * a NameSurferDictionary shared by all partitions, and each partition only
+ * adds a column of ids and its ranks.  Snapshots are looked up in place and
+ * take no memory for names at all.
+ */
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import acm.util.ErrorException;
+
+public class NameSurferPartitionedDataBase implements NameSurferConstants {
+
+    private NameSurferDictionary dictionary = new NameSurferDictionary();
+    private Map<String, Partition> partitions =
+            new LinkedHashMap<String, Partition>();
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Creates an empty partitioned database.  Partitions are added with
+     * addPartition.
+     */
+    public NameSurferPartitionedDataBase() {
+    }
+
+    /**
+     * Creates a partitioned database from the specified catalog file.  Only
+     * the catalog is read; the data files are read when their partitions are
+     * first used.  The constructor throws an error exception if the catalog
+     * can't be read or a line of it is malformed.
+     */
+    public NameSurferPartitionedDataBase(String catalog) {
+        File directory = new File(catalog).getAbsoluteFile().getParentFile();
+        try {
+            BufferedReader bf = new BufferedReader(new FileReader(catalog));
+            try {
+                int lineNumber = 0;
+                while (true) {
+                    String line = bf.readLine();
+                    if (line == null) {
+                        break;
+                    }
+                    lineNumber++;
+                    line = line.trim();
+                    if (line.isEmpty() || line.startsWith("#")) {
+                        continue;
+                    }
+                    String[] fields = line.split("\\s+", 2);
+                    if (fields.length < 2) {
+                        throw new ErrorException(catalog + ", line "
+                                + lineNumber + ": no data file for partition "
+                                + fields[0]);
+                    }
+                    File file = new File(fields[1]);
+                    if (!file.isAbsolute()) {
+                        file = new File(directory, fields[1]);
+                    }
+                    addPartition(fields[0], file.getPath());
+                }
+            } finally {
+                bf.close();
+            }
+        } catch (IOException e) {
+            throw new ErrorException("Can't read " + catalog + ": "
+                    + e.getMessage());
+        }
+    }
+
+    /**
+     * Sets the number of threads each data file is parsed on.
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Adds a partition read from the given data file.  The file is not read
+     * until the partition is first used.
+     */
+    public synchronized void addPartition(String partition, String filename) {
+        if (partitions.containsKey(partition)) {
+            throw new ErrorException("Duplicate partition: " + partition);
+        }
+        partitions.put(partition, new Partition(filename));
+    }
+
+    /**
+     * Returns the names of the partitions, in the order they were added.
+     */
+    public synchronized List<String> getPartitionNames() {
+        return new ArrayList<String>(partitions.keySet());
+    }
+
+    /**
+     * Returns true if the data file of the given partition has been read.
+     */
+    public boolean isLoaded(String partition) {
+        return lookup(partition).isLoaded();
+    }
+
+    /**
+     * Returns the database of the given partition, reading its data file if
+     * this is the first time the partition is used.
+     */
+    public NameSurferDataBase getPartition(String partition) {
+        return lookup(partition).get();
+    }
+
+    /**
+     * Returns the NameSurferEntry associated with this name in the given
+     * partition, if one exists.  Only the data file of that partition is
+     * read.  If the name does not appear in the partition, this method
+     * returns null.
+     */
+    public NameSurferEntry findEntry(CharSequence name, String partition) {
+        return getPartition(partition).findEntry(name);
+    }
+
+    /**
+     * Releases the ranks of the given partition.  The partition is read
+     * again the next time it is used; its names stay in the dictionary.
+     */
+    public void unload(String partition) {
+        lookup(partition).unload();
+    }
+
+    /**
+     * Returns the dictionary of the names of every partition read so far.
+     */
+    public NameSurferDictionary getDictionary() {
+        return dictionary;
+    }
+
+    private synchronized Partition lookup(String partition) {
+        Partition p = partitions.get(partition);
+        if (p == null) {
+            throw new ErrorException("Unknown partition: " + partition);
+        }
+        return p;
+    }
+
+    /**
+     * One partition of the catalog, which reads its data file the first time
+     * it is used.
+     */
+    private class Partition {
+        private String filename;
+        private NameSurferDataBase records;
+
+        Partition(String filename) {
+            this.filename = filename;
+        }
+
+        synchronized boolean isLoaded() {
+            return records != null;
+        }
+
+        synchronized NameSurferDataBase get() {
+            if (records == null) {
+                NameSurferDataBase file = new NameSurferDataBase(filename,
+                        parallelism);
+                NameSurferIndex index = file.getIndex();
+                if (index instanceof NameSurferSnapshot) {
+                    records = file;
+                } else {
+                    records = new NameSurferDataBase(new NameSurferPartition(
+                            dictionary, index));
+                }
+            }
+            return records;
+        }
+
+        synchronized void unload() {
+            records = null;
+        }
+    }
+}
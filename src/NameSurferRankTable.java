@@ -0,0 +1,170 @@
+/*
+ * File: NameSurferRankTable.java
+ * ------------------------------
+ * This class stores every record of the database in columnar form.  The
+ * names live in one array and the ranks of all names are packed into a
+ * single short array of rows as wide as the time axis, so a record costs
+ * one String plus a short per column instead of a whole data line.  The
+ * shorts are read as unsigned, so ranks up to 65,535 fit.  Lookups go
+ * through a NameSurferNameTable from the name to the row number, which
+ * ignores case without making upper case copies of the names, and the
+ * entry handed back is a view over the packed ranks, made once per row, so
+ * nothing is parsed again.
+ */
+
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+public class NameSurferRankTable implements NameSurferIndex,
+        NameSurferConstants {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private NameSurferAxis axis;
+    private int columns;
+    private String[] names;
+    private short[] ranks;
+    private ShortBuffer rankView;
+    private NameSurferEntry[] views;
+    private int size;
+    private NameSurferNameTable rows;
+    private NameSurferStatistics statistics;
+
+    /**
+     * Creates a new, empty rank table for the bundled data file's axis.
+     */
+    public NameSurferRankTable() {
+        this(NameSurferAxis.DEFAULT, INITIAL_CAPACITY);
+    }
+
+    /**
+     * Creates a new, empty rank table with room for the given number of names
+     * before it has to grow.
+     * @param axis, NameSurferAxis, the time axis of the records.
+     * @param capacity, int, the expected number of names.
+     */
+    public NameSurferRankTable(NameSurferAxis axis, int capacity) {
+        this.axis = axis;
+        columns = axis.getCount();
+        capacity = Math.max(capacity, 1);
+        names = new String[capacity];
+        ranks = new short[capacity * columns];
+        rankView = ShortBuffer.wrap(ranks);
+        views = new NameSurferEntry[capacity];
+        rows = new NameSurferNameTable(capacity);
+        statistics = new NameSurferStatistics(this);
+    }
+
+    /**
+     * Adds a record to the table.  The ranks are copied from one row's worth
+     * of consecutive values of the given array starting at offset.  If the name
+     * is already in the table its row is overwritten, so the last record read
+     * for a name is the one that is kept.  Adding a record after the
+     * statistics have been computed starts them over.
+     * @param name, String, the name as it appears in the data file.
+     * @param source, short[], the array holding the ranks.
+     * @param offset, int, the position of the first decade in source.
+     * @return int, the row the record was stored in.
+     */
+    public int add(String name, short[] source, int offset) {
+        if (statistics.isBuilt()) {
+            statistics = new NameSurferStatistics(this);
+            Arrays.fill(views, 0, size, null);
+        }
+        int row = rows.get(name);
+        if (row >= 0) {
+            views[row] = null;
+        } else {
+            if (size == names.length) {
+                grow();
+            }
+            row = size++;
+        }
+        rows.put(name, row);
+        names[row] = name;
+        System.arraycopy(source, offset, ranks, row * columns, columns);
+        return row;
+    }
+
+    /**
+     * Adds every record of another table, in the order they were first added
+     * there.  Adding the tables built from consecutive pieces of a file gives
+     * the same table as adding the records of the whole file one by one.
+     */
+    public void addAll(NameSurferRankTable other) {
+        if (!other.axis.equals(axis)) {
+            throw new IllegalArgumentException("Tables have different axes");
+        }
+        for (int row = 0; row < other.size; row++) {
+            add(other.names[row], other.ranks, row * columns);
+        }
+    }
+
+    /**
+     * Returns the row of the given name, or -1 if the name is not in the
+     * table.
+     */
+    public int find(CharSequence name) {
+        return rows.get(name);
+    }
+
+    /**
+     * Returns the entry stored in the given row.  Entries are views over the
+     * packed ranks and are created only once per row.
+     */
+    public NameSurferEntry entryAt(int row) {
+        NameSurferEntry entry = views[row];
+        if (entry == null) {
+            entry = new NameSurferEntry(names[row], rankView, row * columns,
+                    axis, statistics, row);
+            views[row] = entry;
+        }
+        return entry;
+    }
+
+    /**
+     * Returns the name stored in the given row.
+     */
+    public String nameAt(int row) {
+        return names[row];
+    }
+
+    /**
+     * Returns the rank of the name in the given row for the given decade.
+     */
+    public int rankAt(int row, int decade) {
+        return ranks[row * columns + decade] & 0xFFFF;
+    }
+
+    public NameSurferAxis getAxis() {
+        return axis;
+    }
+
+    public NameSurferStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Returns the number of names in the table.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Doubles the capacity of every column.
+     */
+    private void grow() {
+        int capacity = names.length * 2;
+        String[] newNames = new String[capacity];
+        short[] newRanks = new short[capacity * columns];
+        NameSurferEntry[] newViews = new NameSurferEntry[capacity];
+        System.arraycopy(names, 0, newNames, 0, size);
+        System.arraycopy(ranks, 0, newRanks, 0, size * columns);
+        System.arraycopy(views, 0, newViews, 0, size);
+        names = newNames;
+        ranks = newRanks;
+        rankView = ShortBuffer.wrap(ranks);
+        views = newViews;
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * File: NameSurferRasterRenderer.java
+ * -----------------------------------
+ * This class draws the NameSurfer graph into an image instead of building
+ * a graphical object for every line and label.  Each entry is drawn as a
+ * single path, and the grid is drawn into an image of its own that is only
+ * redrawn when the size of the graph changes.  Rank labels that would
+ * overlap a label already drawn are skipped, so thousands of graphs can be
+ * drawn at once without the labels turning into a smear.  The renderer
+ * needs no screen and is also used to export charts to files.
+ */
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.List;
+
+public class NameSurferRasterRenderer implements NameSurferConstants {
+
+    /** The font used for labels */
+    public static final Font LABEL_FONT = new Font("SansSerif", Font.PLAIN, 12);
+
+    /* Above this many entries lines are drawn without antialiasing */
+    private static final int ANTIALIAS_LIMIT = 100;
+
+    /* The size in pixels of a cell of the label occupancy grid */
+    private static final int CELL_SIZE = 4;
+
+    private NameSurferLayout layout = new NameSurferLayout(0, 0);
+    private BufferedImage grid;
+    private BufferedImage frame;
+    private boolean[] occupied = new boolean[0];
+    private int columns;
+
+    /**
+     * Sets the time axis that the graphs are drawn over.
+     */
+    public void setAxis(NameSurferAxis axis) {
+        layout.setAxis(axis);
+        grid = null;
+    }
+
+    /**
+     * Draws the graphs of the given entries and returns the image.  The same
+     * image is reused, and redrawn, by the next call with the same size.
+     * @param entries, List<NameSurferEntry>, the entries to draw.
+     * @param width, int, the width of the graph.
+     * @param height, int, the height of the graph.
+     * @return BufferedImage, the graph.
+     */
+    public BufferedImage render(List<NameSurferEntry> entries, int width,
+            int height) {
+        width = Math.max(width, 1);
+        height = Math.max(height, 1);
+        if (grid == null || grid.getWidth() != width
+                || grid.getHeight() != height) {
+            layout.setSize(width, height);
+            grid = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            frame = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = grid.createGraphics();
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, width, height);
+            drawGrid(g, layout);
+            g.dispose();
+        }
+        Graphics2D g = frame.createGraphics();
+        g.drawImage(grid, 0, 0, null);
+        drawEntries(g, entries, layout);
+        g.dispose();
+        return frame;
+    }
+
+    /**
+     * Draws the decade lines, year labels and margins of the graph.
+     */
+    public static void drawGrid(Graphics2D g, NameSurferLayout layout) {
+        int width = layout.getWidth();
+        int height = layout.getHeight();
+        g.setColor(Color.BLACK);
+        g.setFont(LABEL_FONT);
+        FontMetrics metrics = g.getFontMetrics();
+        for (int i = 0; i < layout.getGridCount(); i++) {
+            int column = i * layout.getGridStep();
+            int x = (int) layout.x(column);
+            if (i > 0) {
+                g.drawLine(x, 0, x, height);
+            }
+            g.drawString(layout.yearLabel(column), x, height
+                    - (GRAPH_MARGIN_SIZE - metrics.getHeight()));
+        }
+        g.drawLine(0, GRAPH_MARGIN_SIZE, width, GRAPH_MARGIN_SIZE);
+        g.drawLine(0, height - GRAPH_MARGIN_SIZE, width, height
+                - GRAPH_MARGIN_SIZE);
+    }
+
+    /**
+     * Draws the graph of every entry as one path, then their labels.
+     */
+    public void drawEntries(Graphics2D g, List<NameSurferEntry> entries,
+            NameSurferLayout layout) {
+        if (entries.size() <= ANTIALIAS_LIMIT) {
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                    RenderingHints.VALUE_ANTIALIAS_ON);
+        }
+        g.setStroke(new BasicStroke(1f));
+        int points = layout.getPointCount();
+        Path2D.Float path = new Path2D.Float(Path2D.WIND_NON_ZERO, points);
+        for (int i = 0; i < entries.size(); i++) {
+            NameSurferEntry entry = entries.get(i);
+            path.reset();
+            path.moveTo(layout.x(0), layout.y(entry.getRank(0)));
+            for (int p = 1; p < points; p++) {
+                int j = layout.column(p);
+                path.lineTo(layout.x(j), layout.y(entry.getRank(j)));
+            }
+            g.setColor(NameSurferLayout.chooseColor(i));
+            g.draw(path);
+        }
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                RenderingHints.VALUE_ANTIALIAS_OFF);
+        drawLabels(g, entries, layout);
+    }
+
+    /**
+     * Draws the rank labels, skipping every label that would overlap one
+     * that has already been drawn.  Labels are drawn in the order the entries
+     * were added, so the first graphs keep their labels.
+     */
+    private void drawLabels(Graphics2D g, List<NameSurferEntry> entries,
+            NameSurferLayout layout) {
+        g.setFont(LABEL_FONT);
+        g.setColor(Color.BLACK);
+        FontMetrics metrics = g.getFontMetrics();
+        columns = layout.getWidth() / CELL_SIZE + 1;
+        int rows = layout.getHeight() / CELL_SIZE + 1;
+        if (occupied.length < columns * rows) {
+            occupied = new boolean[columns * rows];
+        } else {
+            Arrays.fill(occupied, false);
+        }
+        for (NameSurferEntry entry : entries) {
+            for (int p = 0; p < layout.getPointCount(); p++) {
+                int j = layout.column(p);
+                int x = (int) layout.x(j);
+                int y = (int) layout.y(entry.getRank(j));
+                int top = y - metrics.getAscent();
+                if (isOccupied(x, top, rows)) {
+                    continue;
+                }
+                String label = NameSurferLayout.label(entry, j);
+                if (claim(x, top, metrics.stringWidth(label),
+                        metrics.getHeight(), rows)) {
+                    g.drawString(label, x, y);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns true if the cell holding the given point is occupied, which
+     * rules out any label starting there before its text is even made.
+     */
+    private boolean isOccupied(int x, int y, int rows) {
+        int col = Math.min(columns - 1, Math.max(0, x / CELL_SIZE));
+        int row = Math.min(rows - 1, Math.max(0, y / CELL_SIZE));
+        return occupied[row * columns + col];
+    }
+
+    /**
+     * Marks the cells covered by a rectangle as occupied and returns true,
+     * unless one of them already was, in which case nothing is marked and
+     * false is returned.
+     */
+    private boolean claim(int x, int y, int width, int height, int rows) {
+        int left = Math.max(0, x / CELL_SIZE);
+        int right = Math.min(columns - 1, (x + width) / CELL_SIZE);
+        int top = Math.max(0, y / CELL_SIZE);
+        int bottom = Math.min(rows - 1, (y + height) / CELL_SIZE);
+        for (int row = top; row <= bottom; row++) {
+            for (int col = left; col <= right; col++) {
+                if (occupied[row * columns + col]) {
+                    return false;
+                }
+            }
+        }
+        for (int row = top; row <= bottom; row++) {
+            Arrays.fill(occupied, row * columns + left,
+                    row * columns + right + 1, true);
+        }
+        return true;
+    }
+}
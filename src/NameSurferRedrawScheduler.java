@@ -0,0 +1,112 @@
+/*
+ * File: NameSurferRedrawScheduler.java
+ * ------------------------------------
+ * This class merges bursts of redraw requests into at most one redraw per
+ * frame.  A request that arrives while a redraw is already waiting is
+ * dropped, and the waiting redraw runs on the event dispatch thread once a
+ * frame has passed since the previous one.  The scheduler also keeps count
+ * of the redraws it ran and dropped and of how long they took.
+ */
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import javax.swing.Timer;
+
+public class NameSurferRedrawScheduler implements ActionListener {
+
+    /** The default length of a frame, in milliseconds */
+    public static final int DEFAULT_FRAME_MILLIS = 16;
+
+    private Runnable redraw;
+    private Timer timer;
+    private int frameMillis;
+    private long lastRedraw;
+    private boolean pending;
+    private long redraws;
+    private long dropped;
+    private long totalNanos;
+    private long maxNanos;
+
+    /**
+     * Creates a scheduler that runs the given redraw at most once per frame.
+     * @param redraw, Runnable, the redraw to run.
+     * @param frameMillis, int, the length of a frame in milliseconds.
+     */
+    public NameSurferRedrawScheduler(Runnable redraw, int frameMillis) {
+        this.redraw = redraw;
+        this.frameMillis = frameMillis;
+        timer = new Timer(frameMillis, this);
+        timer.setRepeats(false);
+    }
+
+    /**
+     * Asks for a redraw.  If one is already waiting, the request is merged
+     * into it.
+     */
+    public synchronized void requestRedraw() {
+        if (pending) {
+            dropped++;
+            return;
+        }
+        pending = true;
+        long sinceLast = (System.nanoTime() - lastRedraw) / 1000000;
+        timer.setInitialDelay((int) Math.max(0, frameMillis - sinceLast));
+        timer.restart();
+    }
+
+    /**
+     * Sets the length of a frame.  Redraws never run closer together than
+     * this.
+     */
+    public synchronized void setFrameMillis(int frameMillis) {
+        this.frameMillis = frameMillis;
+    }
+
+    /**
+     * Runs the waiting redraw.  Called by the timer on the event dispatch
+     * thread.
+     */
+    public void actionPerformed(ActionEvent e) {
+        synchronized (this) {
+            pending = false;
+        }
+        long start = System.nanoTime();
+        redraw.run();
+        long end = System.nanoTime();
+        synchronized (this) {
+            lastRedraw = end;
+            redraws++;
+            totalNanos += end - start;
+            maxNanos = Math.max(maxNanos, end - start);
+        }
+    }
+
+    /** Returns the number of redraws that have run. */
+    public synchronized long getRedrawCount() {
+        return redraws;
+    }
+
+    /** Returns the number of requests that were merged into another redraw. */
+    public synchronized long getDroppedCount() {
+        return dropped;
+    }
+
+    /** Returns the average time a redraw took, in milliseconds. */
+    public synchronized double getAverageRedrawMillis() {
+        return (redraws == 0) ? 0 : totalNanos / 1e6 / redraws;
+    }
+
+    /** Returns the longest time a redraw took, in milliseconds. */
+    public synchronized double getMaxRedrawMillis() {
+        return maxNanos / 1e6;
+    }
+
+    /**
+     * Returns a one line summary of the redraw counts and times.
+     */
+    public synchronized String toString() {
+        return String.format("%d redraws, %d dropped, %.2f ms average, "
+                + "%.2f ms max", redraws, dropped, getAverageRedrawMillis(),
+                getMaxRedrawMillis());
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * File: NameSurferSearch.java
+ * ---------------------------
+ * This class finds names that start with, or are close to, what the user
+ * has typed so far.  Prefix matches come from a sorted array of upper case
+ * names, so the matching names always form one contiguous range found by
+ * binary search.  Misspellings are matched by a bounded edit distance
+ * check over the names whose length is close enough to the query; the
+ * check only fills a narrow band of the distance table and stops as soon
+ * as every cell in a row exceeds the allowed distance, so most names are
+ * rejected after a row or two.  Both kinds of match are ranked by
+ * popularity, which is the sum over all decades of how far above the
+ * bottom of the chart a name ranked.
+ *
+ * A search is built completely by its constructor and after that only its
+ * cache of prefix answers changes, so it can be built on one thread, such
+ * as the thread that reloads the database, and used from others.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class NameSurferSearch implements NameSurferConstants {
+
+    /* Prefix ranges longer than this are answered from a cache */
+    private static final int SCAN_LIMIT = 2048;
+
+    private final NameSurferIndex index;
+    private final String[] keys;
+    private final int[] rows;
+    private final int[] popularity;
+    private final Map<String, int[]> cache =
+            new ConcurrentHashMap<String, int[]>();
+
+    /* The keys grouped by length */
+    private final char[][] byLength;
+    private final int[] lengthStart;
+    private final int[] lengthOrder;
+
+    /**
+     * Creates a search index over every name in the given index.
+     */
+    public NameSurferSearch(NameSurferIndex index) {
+        this.index = index;
+        int size = index.size();
+        final String[] upper = new String[size];
+        popularity = new int[size];
+        Integer[] order = new Integer[size];
+        int columns = index.getAxis().getCount();
+        int maxRank = index.getAxis().getMaxRank();
+        for (int row = 0; row < size; row++) {
+            upper[row] = index.nameAt(row).toUpperCase();
+            order[row] = row;
+            long score = 0;
+            for (int decade = 0; decade < columns; decade++) {
+                int rank = index.rankAt(row, decade);
+                if (rank > 0) {
+                    score += maxRank + 1 - rank;
+                }
+            }
+            popularity[row] = (int) Math.min(score, Integer.MAX_VALUE);
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return upper[a].compareTo(upper[b]);
+            }
+        });
+        keys = new String[size];
+        rows = new int[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = upper[order[i]];
+            rows[i] = order[i];
+        }
+        int longest = 0;
+        for (String key : keys) {
+            longest = Math.max(longest, key.length());
+        }
+        lengthStart = new int[longest + 2];
+        byLength = new char[size][];
+        lengthOrder = new int[size];
+        groupByLength();
+    }
+
+    /**
+     * Returns up to k names that start with the given text, most popular
+     * first.
+     * @param prefix, String, the text typed so far; case does not matter.
+     * @param k, int, the largest number of names to return.
+     * @return List<String>, the matching names as they appear in the data.
+     */
+    public List<String> prefixMatches(String prefix, int k) {
+        if (k <= 0) {
+            return new ArrayList<String>();
+        }
+        String key = prefix.toUpperCase();
+        int from = lowerBound(key);
+        int to = lowerBound(key + Character.MAX_VALUE);
+        int[] best;
+        if (to - from > SCAN_LIMIT) {
+            best = cache.get(key);
+            if (best == null || best.length < k) {
+                NameSurferMetrics.count(NameSurferMetrics.CACHE_MISSES);
+                best = topRows(from, to, k);
+                cache.put(key, best);
+            } else {
+                NameSurferMetrics.count(NameSurferMetrics.CACHE_HITS);
+            }
+        } else {
+            best = topRows(from, to, k);
+        }
+        return toNames(best, k);
+    }
+
+    /**
+     * Returns up to k names within maxDistance edits (insertions, deletions
+     * or substitutions) of the given text, closest first and then most
+     * popular first.
+     * @param text, String, the text to match; case does not matter.
+     * @param maxDistance, int, the largest edit distance allowed.
+     * @param k, int, the largest number of names to return.
+     * @return List<String>, the matching names as they appear in the data.
+     */
+    public List<String> fuzzyMatches(String text, int maxDistance, int k) {
+        if (keys.length == 0 || k <= 0) {
+            return new ArrayList<String>();
+        }
+        char[] key = text.toUpperCase().toCharArray();
+        int[] found = new int[k];
+        int[] foundDistance = new int[k];
+        int count = 0;
+        int[] prev = new int[key.length + 1];
+        int[] curr = new int[key.length + 1];
+        int shortest = Math.max(0, key.length - maxDistance);
+        int longest = Math.min(lengthStart.length - 2, key.length + maxDistance);
+        for (int length = shortest; length <= longest; length++) {
+            for (int i = lengthStart[length]; i < lengthStart[length + 1]; i++) {
+                int d = distance(key, byLength[i], maxDistance, prev, curr);
+                if (d <= maxDistance) {
+                    count = insert(found, foundDistance, count, lengthOrder[i],
+                            d);
+                }
+            }
+        }
+        List<String> names = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            names.add(index.nameAt(rows[found[i]]));
+        }
+        return names;
+    }
+
+    /**
+     * Returns up to k suggestions for the given text: the names that start
+     * with it, followed by names that are one or two edits away from it.
+     */
+    public List<String> suggest(String text, int k) {
+        List<String> names = prefixMatches(text, k);
+        if (names.size() < k && text.length() > 2) {
+            int maxDistance = (text.length() > 5) ? 2 : 1;
+            for (String name : fuzzyMatches(text, maxDistance, k)) {
+                if (names.size() == k) {
+                    break;
+                }
+                if (!names.contains(name)) {
+                    names.add(name);
+                }
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Returns the position of the first key that is not less than key.
+     */
+    private int lowerBound(String key) {
+        int low = 0;
+        int high = keys.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid].compareTo(key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the positions of the k most popular keys between from and to,
+     * most popular first.
+     */
+    private int[] topRows(int from, int to, int k) {
+        int[] best = new int[Math.min(k, to - from)];
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            int score = popularity[rows[i]];
+            if (count == best.length && score <= popularity[rows[best[count - 1]]]) {
+                continue;
+            }
+            int j = (count < best.length) ? count++ : count - 1;
+            while (j > 0 && popularity[rows[best[j - 1]]] < score) {
+                best[j] = best[j - 1];
+                j--;
+            }
+            best[j] = i;
+        }
+        return best;
+    }
+
+    private List<String> toNames(int[] positions, int k) {
+        int count = Math.min(k, positions.length);
+        List<String> names = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            names.add(index.nameAt(rows[positions[i]]));
+        }
+        return names;
+    }
+
+    /**
+     * Inserts a fuzzy match into the list of the best ones found so far,
+     * which is kept ordered by distance and then popularity.
+     */
+    private int insert(int[] found, int[] foundDistance, int count, int node,
+            int d) {
+        int score = popularity[rows[node]];
+        int j = count;
+        if (count == found.length) {
+            if (!better(d, score, foundDistance[count - 1],
+                    popularity[rows[found[count - 1]]])) {
+                return count;
+            }
+            j = count - 1;
+        } else {
+            count++;
+        }
+        while (j > 0 && better(d, score, foundDistance[j - 1],
+                popularity[rows[found[j - 1]]])) {
+            found[j] = found[j - 1];
+            foundDistance[j] = foundDistance[j - 1];
+            j--;
+        }
+        found[j] = node;
+        foundDistance[j] = d;
+        return count;
+    }
+
+    private static boolean better(int d1, int score1, int d2, int score2) {
+        return d1 < d2 || (d1 == d2 && score1 > score2);
+    }
+
+    /**
+     * Groups the keys by length, so that a fuzzy search only looks at the
+     * names that are short or long enough to be a match.
+     */
+    private void groupByLength() {
+        for (String key : keys) {
+            lengthStart[key.length() + 1]++;
+        }
+        for (int length = 1; length < lengthStart.length; length++) {
+            lengthStart[length] += lengthStart[length - 1];
+        }
+        int[] next = Arrays.copyOf(lengthStart, lengthStart.length);
+        for (int i = 0; i < keys.length; i++) {
+            int slot = next[keys[i].length()]++;
+            byLength[slot] = keys[i].toCharArray();
+            lengthOrder[slot] = i;
+        }
+    }
+
+    /**
+     * Returns the Levenshtein distance between two strings if it is at most
+     * max, or max + 1 otherwise.  Only the cells within max of the diagonal
+     * are filled in, and the search stops as soon as a whole row is over max.
+     * The two arrays must be one longer than a.
+     */
+    private static int distance(char[] a, char[] b, int max, int[] prev,
+            int[] curr) {
+        int over = max + 1;
+        for (int i = 0; i <= a.length; i++) {
+            prev[i] = (i <= max) ? i : over;
+        }
+        for (int j = 1; j <= b.length; j++) {
+            int from = Math.max(1, j - max);
+            int to = Math.min(a.length, j + max);
+            curr[0] = (j <= max) ? j : over;
+            if (from > 1) {
+                curr[from - 1] = over;
+            }
+            int best = curr[0];
+            char c = b[j - 1];
+            for (int i = from; i <= to; i++) {
+                int cost = (a[i - 1] == c) ? 0 : 1;
+                int d = Math.min(Math.min(curr[i - 1], prev[i]) + 1,
+                        prev[i - 1] + cost);
+                curr[i] = Math.min(d, over);
+                best = Math.min(best, curr[i]);
+            }
+            if (to < a.length) {
+                curr[to + 1] = over;
+            }
+            if (best > max) {
+                return over;
+            }
+            int[] swap = prev;
+            prev = curr;
+            curr = swap;
+        }
+        return prev[a.length];
+    }
+}
@@ -0,0 +1,408 @@
+/*
+ * File: NameSurferServer.java
+ * ---------------------------
+ * This program answers name lookups over HTTP, so that dashboards can read
+ * the names database without running the NameSurfer window.  Every answer
+ * is JSON:
+ *
+ *     GET  /name/Samantha          one name and its ranks
+ *     GET  /top?decade=1950&k=10   the k most popular names of a decade
+ *     GET  /names?n=Eric,Mary      several names at once, or
+ *     POST /names                  with the names in the body, one per line
+ *                                  or separated by commas
+ *
+ * A name is written as {"name":"Samantha","ranks":[0,0,...]} and a name
+ * that is not in the database as null.  The decade of /top is a year, such
+ * as 1950, and k defaults to 10.  The data file is watched and reloaded
+ * when it changes.
+ *
+ * Lookups take no locks.  The answer for each name is built once, the
+ * first time the name is asked for, and kept as bytes until the data file
+ * is reloaded, so popular names cost no more than copying those bytes.
+ * Requests are handled on virtual threads when the Java runtime has them,
+ * and on a pool of ordinary threads otherwise.
+ *
+ *     java NameSurferServer names-data.txt 8080
+ *
+ * The JDK server writes the headers and the body of an answer separately,
+ * and with Nagle's algorithm on the body then waits for the client's
+ * delayed acknowledgement, about 40 ms per request.  The main method turns
+ * Nagle's algorithm off by setting the sun.net.httpserver.nodelay system
+ * property, unless it was given on the command line; a program that starts
+ * a server itself should pass -Dsun.net.httpserver.nodelay=true.
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class NameSurferServer implements NameSurferConstants {
+
+    /** The port the server listens on if none is given */
+    public static final int DEFAULT_PORT = 8080;
+
+    /* The number of names /top returns if k is not given */
+    private static final int DEFAULT_TOP = 10;
+
+    /* The largest number of names a single request may ask for */
+    private static final int MAX_NAMES = 10000;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final byte[] NULL = "null".getBytes(UTF8);
+
+    private NameSurferDataBase records;
+    private HttpServer server;
+    private ExecutorService executor;
+    private AtomicReference<Responses> responses =
+            new AtomicReference<Responses>();
+
+    /**
+     * Creates a server for the given database that listens on the given
+     * port.  The server does not answer requests until it is started.
+     */
+    public NameSurferServer(NameSurferDataBase records, int port)
+            throws IOException {
+        this.records = records;
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/name/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                String path = exchange.getRequestURI().getPath();
+                String name = path.substring("/name/".length());
+                byte[] body = getResponses().name(name);
+                send(exchange, (body == NULL) ? 404 : 200, body);
+            }
+        });
+        server.createContext("/top", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                handleTop(exchange);
+            }
+        });
+        server.createContext("/names", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                handleNames(exchange);
+            }
+        });
+        executor = newExecutor();
+        server.setExecutor(executor);
+    }
+
+    /**
+     * Returns an executor that runs each request on a virtual thread if the
+     * runtime supports them, or on a pool of threads otherwise.
+     */
+    private static ExecutorService newExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod(
+                    "newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (Exception e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * Starts answering requests.
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops answering requests, waiting at most the given number of seconds
+     * for the requests being answered to finish.
+     */
+    public void stop(int seconds) {
+        server.stop(seconds);
+        executor.shutdown();
+    }
+
+    /**
+     * Returns the port the server listens on.
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Returns the cached answers for the records currently in the database,
+     * starting a new cache if the database was reloaded.
+     */
+    private Responses getResponses() {
+        NameSurferIndex index = records.getIndex();
+        Responses cached = responses.get();
+        if (cached == null || cached.index != index) {
+            Responses fresh = new Responses(index);
+            if (responses.compareAndSet(cached, fresh)) {
+                return fresh;
+            }
+            return responses.get();
+        }
+        return cached;
+    }
+
+    private void handleTop(HttpExchange exchange) throws IOException {
+        String query = exchange.getRequestURI().getRawQuery();
+        String decade = parameter(query, "decade");
+        String k = parameter(query, "k");
+        Responses cached = getResponses();
+        NameSurferAxis axis = cached.index.getAxis();
+        int years;
+        int count;
+        try {
+            years = Integer.parseInt(decade) - axis.getStart();
+            count = (k == null) ? DEFAULT_TOP : Integer.parseInt(k);
+        } catch (NumberFormatException e) {
+            sendError(exchange, 400, "decade must be a year and k a number");
+            return;
+        }
+        if (years % axis.getStep() != 0) {
+            sendError(exchange, 400, "decade must be " + axis.getStart()
+                    + " plus a multiple of " + axis.getStep());
+            return;
+        }
+        int column = years / axis.getStep();
+        if (column < 0 || column >= axis.getCount() || count < 0
+                || count > MAX_NAMES) {
+            sendError(exchange, 400, "decade or k out of range");
+            return;
+        }
+        send(exchange, 200, cached.top(column, count));
+    }
+
+    private void handleNames(HttpExchange exchange) throws IOException {
+        String list;
+        if (exchange.getRequestMethod().equals("POST")) {
+            list = new String(readAll(exchange.getRequestBody()), UTF8);
+        } else {
+            list = parameter(exchange.getRequestURI().getRawQuery(), "n");
+            if (list == null) {
+                list = "";
+            }
+        }
+        String[] names = list.split("[,\\n\\r]+");
+        if (names.length > MAX_NAMES) {
+            sendError(exchange, 400, "at most " + MAX_NAMES + " names");
+            return;
+        }
+        Responses cached = getResponses();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(
+                64 * names.length + 2);
+        out.write('{');
+        boolean first = true;
+        for (String name : names) {
+            name = name.trim();
+            if (name.isEmpty()) {
+                continue;
+            }
+            if (!first) {
+                out.write(',');
+            }
+            first = false;
+            out.write(quote(name).getBytes(UTF8));
+            out.write(':');
+            out.write(cached.name(name));
+        }
+        out.write('}');
+        send(exchange, 200, out.toByteArray());
+    }
+
+    /**
+     * The answers built for one version of the data file.  The answer for a
+     * row is built once and kept; if two threads build it at the same time,
+     * both answers are the same and either may be kept.  Every answer is
+     * built from this version's index, even while the database is being
+     * reloaded, so an answer is never kept under the wrong version.
+     */
+    private static class Responses {
+        private final NameSurferIndex index;
+        private final AtomicReferenceArray<byte[]> names;
+        private final ConcurrentHashMap<Long, byte[]> tops =
+                new ConcurrentHashMap<Long, byte[]>();
+        private NameSurferDecadeIndex decades;
+
+        Responses(NameSurferIndex index) {
+            this.index = index;
+            names = new AtomicReferenceArray<byte[]>(index.size());
+        }
+
+        /**
+         * Returns the answer for the given name, or NULL if it is not in the
+         * database.
+         */
+        byte[] name(String name) {
+            int row = index.find(name);
+            if (row < 0) {
+                return NULL;
+            }
+            byte[] body = names.get(row);
+            if (body == null) {
+                NameSurferMetrics.count(NameSurferMetrics.CACHE_MISSES);
+                body = toJson(index.entryAt(row)).getBytes(UTF8);
+                names.lazySet(row, body);
+            } else {
+                NameSurferMetrics.count(NameSurferMetrics.CACHE_HITS);
+            }
+            return body;
+        }
+
+        /**
+         * Returns the answer for the k most popular names of a column.
+         */
+        byte[] top(int column, int k) {
+            Long key = ((long) column << 32) | k;
+            byte[] body = tops.get(key);
+            if (body != null) {
+                NameSurferMetrics.count(NameSurferMetrics.CACHE_HITS);
+            } else {
+                NameSurferMetrics.count(NameSurferMetrics.CACHE_MISSES);
+                List<NameSurferEntry> entries =
+                        getDecadeIndex().topNames(column, k);
+                StringBuilder json = new StringBuilder("[");
+                for (int i = 0; i < entries.size(); i++) {
+                    if (i > 0) {
+                        json.append(',');
+                    }
+                    json.append(toJson(entries.get(i)));
+                }
+                body = json.append(']').toString().getBytes(UTF8);
+                tops.put(key, body);
+            }
+            return body;
+        }
+
+        /**
+         * Returns the decade index over this version's records, building it
+         * the first time /top is asked for.
+         */
+        synchronized NameSurferDecadeIndex getDecadeIndex() {
+            if (decades == null) {
+                decades = new NameSurferDecadeIndex(index);
+            }
+            return decades;
+        }
+    }
+
+    /**
+     * Returns the JSON for one entry.
+     */
+    static String toJson(NameSurferEntry entry) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"name\":").append(quote(entry.getName()));
+        json.append(",\"ranks\":[");
+        for (int i = 0; i < entry.getAxis().getCount(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append(entry.getRank(i));
+        }
+        return json.append("]}").toString();
+    }
+
+    /**
+     * Returns the given text as a JSON string.
+     */
+    static String quote(String text) {
+        StringBuilder json = new StringBuilder("\"");
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < ' ') {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        return json.append('"').toString();
+    }
+
+    /**
+     * Returns the decoded value of the given parameter of a query string, or
+     * null if the parameter is not there.
+     */
+    private static String parameter(String query, String name) {
+        if (query == null) {
+            return null;
+        }
+        for (String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0 && pair.substring(0, equals).equals(name)) {
+                try {
+                    return URLDecoder.decode(pair.substring(equals + 1),
+                            "UTF-8");
+                } catch (IOException e) {
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        while (true) {
+            int n = in.read(buffer);
+            if (n < 0) {
+                break;
+            }
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private static void sendError(HttpExchange exchange, int status,
+            String message) throws IOException {
+        send(exchange, status, ("{\"error\":" + quote(message) + "}")
+                .getBytes(UTF8));
+    }
+
+    private static void send(HttpExchange exchange, int status, byte[] body)
+            throws IOException {
+        exchange.getResponseHeaders().set("Content-Type",
+                "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        OutputStream out = exchange.getResponseBody();
+        try {
+            out.write(body);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Starts a server for a data file.
+     * @param args, the data file, and optionally the port.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("usage: java NameSurferServer <data file> "
+                    + "[port]");
+            System.exit(1);
+        }
+        int port = (args.length > 1) ? Integer.parseInt(args[1])
+                : DEFAULT_PORT;
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        NameSurferMetrics.install();
+        NameSurferDataBase records = new NameSurferDataBase(args[0]);
+        records.startWatching();
+        NameSurferServer server = new NameSurferServer(records, port);
+        server.start();
+        System.out.println("Serving " + records.getIndex().size()
+                + " names on port " + server.getPort());
+    }
+}
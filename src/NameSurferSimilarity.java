@@ -0,0 +1,380 @@
+/*
+ * File: NameSurferSimilarity.java
+ * -------------------------------
+ * This class finds the names whose popularity curves look most like the
+ * curve of a given name.  Every curve is copied once into a flat float
+ * array, with a rank of 0 stored as the largest rank so that a name that is
+ * off the chart sits at the bottom of the graph, just as NameSurferGraph
+ * draws it.
+ * Curves can be compared by Euclidean distance, by correlation (which
+ * ignores how high or low a curve sits and only looks at its shape), or by
+ * dynamic time warping (which also forgives a curve that is shifted by a
+ * decade).
+ *
+ * By default every curve is scored.  For Euclidean and correlation searches
+ * a vantage point tree can be used instead by setting a search budget: the
+ * search then stops after comparing that many curves and returns the best
+ * ones seen, trading recall for speed.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class NameSurferSimilarity implements NameSurferConstants {
+
+    /** The ways two popularity curves can be compared */
+    public enum Distance {
+        EUCLIDEAN, CORRELATION, DTW
+    }
+
+    /* How many decades a curve may be shifted by when time warping */
+    private static final int WARP_WINDOW = 1;
+
+    private NameSurferIndex index;
+    private int columns;
+    private int maxRank;
+    private int size;
+    private float[] curves;
+    private float[] shapes;
+    private int budget;
+    private VantagePointTree euclideanTree;
+    private VantagePointTree correlationTree;
+
+    /**
+     * Creates a similarity search over every name in the given index.
+     */
+    public NameSurferSimilarity(NameSurferIndex index) {
+        this.index = index;
+        size = index.size();
+        columns = index.getAxis().getCount();
+        maxRank = index.getAxis().getMaxRank();
+        curves = new float[size * columns];
+        for (int row = 0; row < size; row++) {
+            for (int decade = 0; decade < columns; decade++) {
+                int rank = index.rankAt(row, decade);
+                curves[row * columns + decade] = (rank == 0) ? maxRank : rank;
+            }
+        }
+    }
+
+    /**
+     * Sets how many curves an indexed search may compare before it stops.
+     * A budget of 0, the default, compares every curve and always finds the
+     * true closest names.  Larger budgets find more of them.
+     */
+    public void setSearchBudget(int budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Returns the k names whose curves are closest to the curve of the given
+     * entry, closest first.  The entry itself is never returned.
+     * @param entry, NameSurferEntry, the name to match.
+     * @param k, int, the largest number of names to return.
+     * @param distance, Distance, how to compare curves.
+     * @return List<NameSurferEntry>, the closest names.
+     */
+    public List<NameSurferEntry> findSimilar(NameSurferEntry entry, int k,
+            Distance distance) {
+        float[] query = new float[columns];
+        for (int decade = 0; decade < columns; decade++) {
+            int rank = entry.getRank(decade);
+            query[decade] = (rank == 0) ? maxRank : rank;
+        }
+        int self = index.find(entry.getName());
+        Best best = new Best(k, self);
+        if (distance == Distance.DTW) {
+            scanWarped(query, best);
+        } else {
+            float[] data = curves;
+            if (distance == Distance.CORRELATION) {
+                data = shapes();
+                normalize(query, 0);
+            }
+            if (budget > 0) {
+                tree(distance).search(query, best, budget);
+            } else {
+                scan(data, query, best);
+            }
+        }
+        List<NameSurferEntry> result = new ArrayList<NameSurferEntry>();
+        for (int i = 0; i < best.count; i++) {
+            result.add(index.entryAt(best.rows[i]));
+        }
+        return result;
+    }
+
+    /**
+     * Scores every curve by squared Euclidean distance, giving up on a curve
+     * as soon as it is farther away than the worst of the best found so far.
+     */
+    private void scan(float[] data, float[] query, Best best) {
+        for (int row = 0; row < size; row++) {
+            int base = row * columns;
+            float limit = best.limit();
+            float sum = 0;
+            for (int decade = 0; decade < columns && sum < limit; decade++) {
+                float diff = data[base + decade] - query[decade];
+                sum += diff * diff;
+            }
+            if (sum < limit) {
+                best.offer(row, sum);
+            }
+        }
+    }
+
+    /**
+     * Scores every curve by dynamic time warping within WARP_WINDOW decades.
+     */
+    private void scanWarped(float[] query, Best best) {
+        float[] prev = new float[columns + 1];
+        float[] curr = new float[columns + 1];
+        for (int row = 0; row < size; row++) {
+            float d = warp(query, row * columns, best.limit(), prev, curr);
+            if (d < best.limit()) {
+                best.offer(row, d);
+            }
+        }
+    }
+
+    /**
+     * Returns the time warped distance between the query and the curve
+     * starting at base, or infinity once it is certain to exceed limit.
+     */
+    private float warp(float[] query, int base, float limit, float[] prev,
+            float[] curr) {
+        Arrays.fill(prev, Float.POSITIVE_INFINITY);
+        prev[0] = 0;
+        for (int i = 1; i <= columns; i++) {
+            Arrays.fill(curr, Float.POSITIVE_INFINITY);
+            float rowBest = Float.POSITIVE_INFINITY;
+            int from = Math.max(1, i - WARP_WINDOW);
+            int to = Math.min(columns, i + WARP_WINDOW);
+            for (int j = from; j <= to; j++) {
+                float diff = query[i - 1] - curves[base + j - 1];
+                float step = Math.min(prev[j - 1], Math.min(prev[j],
+                        curr[j - 1]));
+                curr[j] = diff * diff + step;
+                rowBest = Math.min(rowBest, curr[j]);
+            }
+            if (rowBest >= limit) {
+                return Float.POSITIVE_INFINITY;
+            }
+            float[] swap = prev;
+            prev = curr;
+            curr = swap;
+        }
+        return prev[columns];
+    }
+
+    /**
+     * Returns the curves shifted and scaled to a mean of 0 and a standard
+     * deviation of 1, so that their Euclidean distance orders them the same
+     * way as their correlation.
+     */
+    private synchronized float[] shapes() {
+        if (shapes == null) {
+            float[] normalized = Arrays.copyOf(curves, curves.length);
+            for (int row = 0; row < size; row++) {
+                normalize(normalized, row * columns);
+            }
+            shapes = normalized;
+        }
+        return shapes;
+    }
+
+    private void normalize(float[] data, int base) {
+        float mean = 0;
+        for (int i = 0; i < columns; i++) {
+            mean += data[base + i];
+        }
+        mean /= columns;
+        float variance = 0;
+        for (int i = 0; i < columns; i++) {
+            float diff = data[base + i] - mean;
+            variance += diff * diff;
+        }
+        float deviation = (float) Math.sqrt(variance / columns);
+        for (int i = 0; i < columns; i++) {
+            data[base + i] = (deviation == 0) ? 0
+                    : (data[base + i] - mean) / deviation;
+        }
+    }
+
+    private synchronized VantagePointTree tree(Distance distance) {
+        if (distance == Distance.CORRELATION) {
+            if (correlationTree == null) {
+                correlationTree = new VantagePointTree(shapes());
+            }
+            return correlationTree;
+        }
+        if (euclideanTree == null) {
+            euclideanTree = new VantagePointTree(curves);
+        }
+        return euclideanTree;
+    }
+
+    /**
+     * The k best rows seen so far, kept in order of increasing squared
+     * distance.
+     */
+    private static class Best {
+        private int[] rows;
+        private float[] scores;
+        private int count;
+        private int skip;
+
+        Best(int k, int skip) {
+            rows = new int[k];
+            scores = new float[k];
+            this.skip = skip;
+        }
+
+        /** Returns the score a row has to beat to be kept. */
+        float limit() {
+            return (count < rows.length) ? Float.POSITIVE_INFINITY
+                    : scores[count - 1];
+        }
+
+        void offer(int row, float score) {
+            if (row == skip || rows.length == 0 || score >= limit()) {
+                return;
+            }
+            int j = (count < rows.length) ? count++ : count - 1;
+            while (j > 0 && scores[j - 1] > score) {
+                rows[j] = rows[j - 1];
+                scores[j] = scores[j - 1];
+                j--;
+            }
+            rows[j] = row;
+            scores[j] = score;
+        }
+    }
+
+    /**
+     * A vantage point tree over a set of curves.  The tree is stored in a
+     * permutation of the rows: the node covering positions lo to hi keeps its
+     * vantage point at lo, the curves within radius[lo] of it at lo + 1 up to
+     * the middle, and the rest after that.
+     */
+    private class VantagePointTree {
+        private float[] data;
+        private int[] order;
+        private float[] radius;
+
+        VantagePointTree(float[] data) {
+            this.data = data;
+            order = new int[size];
+            radius = new float[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            build(0, size, new Random(size), new float[size]);
+        }
+
+        private void build(int lo, int hi, Random random, float[] dist) {
+            if (hi - lo <= 1) {
+                return;
+            }
+            swap(lo, lo + random.nextInt(hi - lo));
+            int vp = order[lo];
+            for (int i = lo + 1; i < hi; i++) {
+                dist[order[i]] = (float) Math.sqrt(squared(vp, order[i]));
+            }
+            int mid = (lo + 1 + hi) >>> 1;
+            select(lo + 1, hi - 1, mid, dist);
+            radius[lo] = dist[order[mid]];
+            build(lo + 1, mid, random, dist);
+            build(mid, hi, random, dist);
+        }
+
+        /**
+         * Rearranges order[lo..hi] so that the row at position n has the
+         * distance it would have if they were sorted, with closer rows before
+         * it and farther ones after it.
+         */
+        private void select(int lo, int hi, int n, float[] dist) {
+            while (lo < hi) {
+                float pivot = dist[order[(lo + hi) >>> 1]];
+                int i = lo;
+                int j = hi;
+                while (i <= j) {
+                    while (dist[order[i]] < pivot) {
+                        i++;
+                    }
+                    while (dist[order[j]] > pivot) {
+                        j--;
+                    }
+                    if (i <= j) {
+                        swap(i++, j--);
+                    }
+                }
+                if (n <= j) {
+                    hi = j;
+                } else if (n >= i) {
+                    lo = i;
+                } else {
+                    return;
+                }
+            }
+        }
+
+        void search(float[] query, Best best, int budget) {
+            int[] remaining = { budget };
+            search(0, size, query, best, remaining);
+        }
+
+        private void search(int lo, int hi, float[] query, Best best,
+                int[] remaining) {
+            if (lo >= hi || remaining[0] <= 0) {
+                return;
+            }
+            int vp = order[lo];
+            float squared = 0;
+            for (int i = 0; i < columns; i++) {
+                float diff = data[vp * columns + i] - query[i];
+                squared += diff * diff;
+            }
+            remaining[0]--;
+            best.offer(vp, squared);
+            if (hi - lo == 1) {
+                return;
+            }
+            float d = (float) Math.sqrt(squared);
+            int mid = (lo + 1 + hi) >>> 1;
+            float mu = radius[lo];
+            if (d < mu) {
+                search(lo + 1, mid, query, best, remaining);
+                if (d + tau(best) >= mu) {
+                    search(mid, hi, query, best, remaining);
+                }
+            } else {
+                search(mid, hi, query, best, remaining);
+                if (d - tau(best) <= mu) {
+                    search(lo + 1, mid, query, best, remaining);
+                }
+            }
+        }
+
+        private float tau(Best best) {
+            return (float) Math.sqrt(best.limit());
+        }
+
+        private float squared(int a, int b) {
+            float sum = 0;
+            for (int i = 0; i < columns; i++) {
+                float diff = data[a * columns + i] - data[b * columns + i];
+                sum += diff * diff;
+            }
+            return sum;
+        }
+
+        private void swap(int i, int j) {
+            int tmp = order[i];
+            order[i] = order[j];
+            order[j] = tmp;
+        }
+    }
+}
@@ -0,0 +1,323 @@
+/*
+ * File: NameSurferSnapshot.java
+ * -----------------------------
+ * This class serves the names database from a binary snapshot of the data
+ * file.  A snapshot is memory mapped and read in place, so opening one
+ * costs the same no matter how many names it holds, and the heap does not
+ * grow with its size.  The main method converts a text data file into a
+ * snapshot:
+ *
+ *     java NameSurferSnapshot names-data.txt names-data.snap
+ *
+ * All numbers are big-endian.  The file is laid out as:
+ *
+ *     header        MAGIC, VERSION, name count, and the axis: column
+ *                   count, first year, years per column and largest rank,
+ *                   then the positions of the three sections below
+ *                   (10 ints)
+ *     name offsets  (count + 1) ints giving where each name starts in the
+ *                   name bytes; names are sorted by their upper case form
+ *     name bytes    the names in UTF-8, padded to an even length
+ *     ranks         count rows of unsigned shorts, one per column, in the
+ *                   same order as the names
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import acm.util.ErrorException;
+
+public class NameSurferSnapshot implements NameSurferIndex, NameSurferConstants {
+
+    /** The first four bytes of every snapshot; never starts a text file */
+    public static final int MAGIC = 0x894E5353;
+
+    /** The version of the snapshot format written by this class */
+    public static final int VERSION = 2;
+
+    private static final int HEADER_SIZE = 10 * 4;
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    private String source;
+    private ByteBuffer data;
+    private ShortBuffer ranks;
+    private NameSurferStatistics statistics;
+    private NameSurferAxis axis;
+    private int columns;
+    private int size;
+    private int offsetsPos;
+    private int namesPos;
+
+    /**
+     * Opens a snapshot that has already been mapped into memory.  Only the
+     * header is read; names and ranks are read from the mapping as they are
+     * needed.
+     * @param data, ByteBuffer, the contents of the snapshot file.
+     * @param source, String, the name of the snapshot, used in error messages.
+     */
+    public NameSurferSnapshot(ByteBuffer data, String source) {
+        this.source = source;
+        this.data = data;
+        if (!isSnapshot(data) || data.limit() < HEADER_SIZE) {
+            throw error("not a NameSurfer snapshot");
+        }
+        int version = data.getInt(4);
+        if (version != VERSION) {
+            throw error("unsupported snapshot version " + version);
+        }
+        size = data.getInt(8);
+        try {
+            axis = new NameSurferAxis(data.getInt(16), data.getInt(20),
+                    data.getInt(12), data.getInt(24));
+        } catch (IllegalArgumentException e) {
+            throw error(e.getMessage());
+        }
+        if (axis.equals(NameSurferAxis.DEFAULT)) {
+            axis = NameSurferAxis.DEFAULT;
+        }
+        columns = axis.getCount();
+        offsetsPos = data.getInt(28);
+        namesPos = data.getInt(32);
+        int ranksPos = data.getInt(36);
+        if (size < 0 || offsetsPos + 4L * (size + 1) > namesPos
+                || ranksPos + 2L * size * columns > data.limit()) {
+            throw error("snapshot is truncated");
+        }
+        ByteBuffer rankBytes = data.duplicate();
+        rankBytes.position(ranksPos);
+        ranks = rankBytes.slice().asShortBuffer();
+        statistics = new NameSurferStatistics(this);
+    }
+
+    /**
+     * Returns true if the buffer starts with the snapshot MAGIC number.
+     */
+    public static boolean isSnapshot(ByteBuffer data) {
+        return data.limit() >= 4 && data.getInt(0) == MAGIC;
+    }
+
+    /**
+     * Finds a name by binary search over the sorted name bytes.  Names are
+     * compared one character at a time without decoding them into Strings,
+     * and the comparison ignores case.
+     */
+    public int find(CharSequence key) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareName(mid, key);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the entry stored in the given row.  A new entry is made each
+     * time, a view over the mapped ranks, so that no more of the heap is
+     * used the more rows are read.
+     */
+    public NameSurferEntry entryAt(int row) {
+        return new NameSurferEntry(nameAt(row), ranks, row * columns, axis,
+                statistics, row);
+    }
+
+    public String nameAt(int row) {
+        int start = nameStart(row);
+        byte[] bytes = new byte[nameStart(row + 1) - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = data.get(namesPos + start + i);
+        }
+        return new String(bytes, CHARSET);
+    }
+
+    public int rankAt(int row, int decade) {
+        return ranks.get(row * columns + decade) & 0xFFFF;
+    }
+
+    public NameSurferAxis getAxis() {
+        return axis;
+    }
+
+    public NameSurferStatistics getStatistics() {
+        return statistics;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private int nameStart(int row) {
+        return data.getInt(offsetsPos + 4 * row);
+    }
+
+    /**
+     * Compares the upper case form of the name in the given row with the
+     * upper case form of key, one code point at a time.
+     */
+    private int compareName(int row, CharSequence key) {
+        int pos = namesPos + nameStart(row);
+        int end = namesPos + nameStart(row + 1);
+        int i = 0;
+        while (pos < end && i < key.length()) {
+            int b = data.get(pos) & 0xFF;
+            int cp;
+            if (b < 0x80) {
+                cp = b;
+                pos++;
+            } else if (b < 0xE0) {
+                cp = ((b & 0x1F) << 6) | (data.get(pos + 1) & 0x3F);
+                pos += 2;
+            } else if (b < 0xF0) {
+                cp = ((b & 0x0F) << 12) | ((data.get(pos + 1) & 0x3F) << 6)
+                        | (data.get(pos + 2) & 0x3F);
+                pos += 3;
+            } else {
+                cp = ((b & 0x07) << 18) | ((data.get(pos + 1) & 0x3F) << 12)
+                        | ((data.get(pos + 2) & 0x3F) << 6)
+                        | (data.get(pos + 3) & 0x3F);
+                pos += 4;
+            }
+            int keyCp = Character.codePointAt(key, i);
+            i += Character.charCount(keyCp);
+            int cmp = Character.toUpperCase(cp) - Character.toUpperCase(keyCp);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        if (pos < end) {
+            return 1;
+        }
+        return (i < key.length()) ? -1 : 0;
+    }
+
+    /**
+     * Compares two names the same way compareName does.
+     */
+    private static int compareNames(String a, String b) {
+        int i = 0;
+        int j = 0;
+        while (i < a.length() && j < b.length()) {
+            int cpA = a.codePointAt(i);
+            int cpB = b.codePointAt(j);
+            int cmp = Character.toUpperCase(cpA) - Character.toUpperCase(cpB);
+            if (cmp != 0) {
+                return cmp;
+            }
+            i += Character.charCount(cpA);
+            j += Character.charCount(cpB);
+        }
+        return (a.length() - i) - (b.length() - j);
+    }
+
+    /**
+     * Writes every record of the index to a snapshot file.  The snapshot is
+     * written next to the file and then moved over it, so a database that
+     * has the old file mapped, or is watching it for changes, never sees a
+     * half-written snapshot.
+     * @param index, NameSurferIndex, the records to write.
+     * @param filename, String, the snapshot file to create.
+     */
+    public static void write(final NameSurferIndex index, String filename) {
+        int size = index.size();
+        Integer[] order = new Integer[size];
+        byte[][] names = new byte[size][];
+        int nameBytes = 0;
+        for (int row = 0; row < size; row++) {
+            order[row] = row;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return compareNames(index.nameAt(a), index.nameAt(b));
+            }
+        });
+        for (int i = 0; i < size; i++) {
+            names[i] = index.nameAt(order[i]).getBytes(CHARSET);
+            nameBytes += names[i].length;
+        }
+        int offsetsPos = HEADER_SIZE;
+        int namesPos = offsetsPos + 4 * (size + 1);
+        int ranksPos = namesPos + nameBytes + (nameBytes % 2);
+        File target = new File(filename);
+        File temp = new File(filename + ".tmp");
+        try {
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(temp)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(size);
+                NameSurferAxis axis = index.getAxis();
+                out.writeInt(axis.getCount());
+                out.writeInt(axis.getStart());
+                out.writeInt(axis.getStep());
+                out.writeInt(axis.getMaxRank());
+                out.writeInt(offsetsPos);
+                out.writeInt(namesPos);
+                out.writeInt(ranksPos);
+                int offset = 0;
+                for (int i = 0; i < size; i++) {
+                    out.writeInt(offset);
+                    offset += names[i].length;
+                }
+                out.writeInt(offset);
+                for (int i = 0; i < size; i++) {
+                    out.write(names[i]);
+                }
+                if (nameBytes % 2 != 0) {
+                    out.writeByte(0);
+                }
+                for (int i = 0; i < size; i++) {
+                    for (int decade = 0; decade < axis.getCount();
+                            decade++) {
+                        out.writeShort(index.rankAt(order[i], decade));
+                    }
+                }
+            } finally {
+                out.close();
+            }
+            Files.move(temp.toPath(), target.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            temp.delete();
+            throw new ErrorException("Can't write " + filename + ": "
+                    + e.getMessage());
+        }
+    }
+
+    private ErrorException error(String msg) {
+        return new ErrorException(source + ": " + msg);
+    }
+
+    /**
+     * Converts a text data file into a snapshot.
+     * @param args, the text file to read and the snapshot file to write.
+     */
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.err.println("usage: java NameSurferSnapshot <data file> "
+                    + "<snapshot file>");
+            System.exit(1);
+        }
+        NameSurferIndex index = NameSurferParser.load(args[0],
+                Runtime.getRuntime().availableProcessors());
+        write(index, args[1]);
+        System.out.println("Wrote " + index.size() + " names to " + args[1]);
+    }
+}
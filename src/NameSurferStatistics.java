@@ -0,0 +1,302 @@
+/*
+ * File: NameSurferStatistics.java
+ * -------------------------------
+ * This class holds statistics of every name in an index, derived from its
+ * ranks: the best rank it reached, the decade it reached it in, the number
+ * of decades it was on the chart, the trend of its popularity and how
+ * much its popularity jumped around.  Each statistic is a primitive array
+ * with one value per row, filled for every row in a single pass over the
+ * ranks the first time any statistic is asked for.  Rows sorted by a
+ * statistic are kept once they have been asked for, so sorting and
+ * filtering the whole index by a statistic is a sort of primitive keys the
+ * first time and a copy after that.
+ *
+ * The trend and the jumps are measured on the popularity of the name in
+ * each decade, which is the largest rank of the axis plus one less the
+ * rank, or 0 for a decade in which the name was off the chart, so that
+ * higher is more popular.  The slope is the least-squares slope of the
+ * popularity against the decade, in places per decade, and the volatility
+ * is the root mean square of the change in popularity from each decade to
+ * the next.
+ */
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+public class NameSurferStatistics {
+
+    /** The statistics kept for every name */
+    public enum Statistic {
+        PEAK_RANK, PEAK_DECADE, DECADES_ON_CHART, SLOPE, VOLATILITY
+    }
+
+    private final NameSurferIndex index;
+    private final int rows;
+    private volatile boolean built;
+    private short[] peakRank;
+    private short[] peakDecade;
+    private short[] decadesOnChart;
+    private float[] slope;
+    private float[] volatility;
+    private final AtomicReferenceArray<int[]> orders =
+            new AtomicReferenceArray<int[]>(Statistic.values().length);
+
+    /**
+     * Creates the statistics of the names in the given index.  Nothing is
+     * computed until a statistic is first asked for.
+     */
+    public NameSurferStatistics(NameSurferIndex index) {
+        this.index = index;
+        this.rows = -1;
+    }
+
+    /*
+     * Creates the statistics of a single entry that is not stored in an
+     * index, computing them at once.
+     */
+    private NameSurferStatistics(NameSurferEntry entry) {
+        index = null;
+        rows = 1;
+        allocate(1);
+        int[] ranks = new int[entry.getAxis().getCount()];
+        for (int j = 0; j < ranks.length; j++) {
+            ranks[j] = entry.getRank(j);
+        }
+        store(0, ranks, entry.getAxis().getMaxRank());
+        built = true;
+    }
+
+    /**
+     * Returns the statistics of a single entry, as the only row.
+     */
+    static NameSurferStatistics of(NameSurferEntry entry) {
+        return new NameSurferStatistics(entry);
+    }
+
+    /**
+     * Returns the best rank the name in the given row reached, or 0 if it
+     * was never on the chart.
+     */
+    public int getPeakRank(int row) {
+        build();
+        return peakRank[row] & 0xFFFF;
+    }
+
+    /**
+     * Returns the first decade in which the name in the given row reached
+     * its best rank, or -1 if it was never on the chart.
+     */
+    public int getPeakDecade(int row) {
+        build();
+        return peakDecade[row];
+    }
+
+    /**
+     * Returns the number of decades in which the name in the given row was
+     * on the chart.
+     */
+    public int getDecadesOnChart(int row) {
+        build();
+        return decadesOnChart[row];
+    }
+
+    /**
+     * Returns the slope of the popularity of the name in the given row, in
+     * places per decade; positive if the name grew more popular.
+     */
+    public float getSlope(int row) {
+        build();
+        return slope[row];
+    }
+
+    /**
+     * Returns how much the popularity of the name in the given row changed
+     * from one decade to the next, in places.
+     */
+    public float getVolatility(int row) {
+        build();
+        return volatility[row];
+    }
+
+    /**
+     * Returns the value of the given statistic for the given row.
+     */
+    public double get(Statistic statistic, int row) {
+        switch (statistic) {
+        case PEAK_RANK:
+            return getPeakRank(row);
+        case PEAK_DECADE:
+            return getPeakDecade(row);
+        case DECADES_ON_CHART:
+            return getDecadesOnChart(row);
+        case SLOPE:
+            return getSlope(row);
+        default:
+            return getVolatility(row);
+        }
+    }
+
+    /**
+     * Returns every row sorted by the given statistic, smallest value first,
+     * with ties in row order.  The array is shared and must not be changed.
+     */
+    public int[] sortedBy(Statistic statistic) {
+        int[] order = orders.get(statistic.ordinal());
+        if (order == null) {
+            build();
+            int size = size();
+            long[] keys = new long[size];
+            for (int row = 0; row < size; row++) {
+                keys[row] = ((long) sortKey(statistic, row) << 32) | row;
+            }
+            Arrays.sort(keys);
+            order = new int[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = (int) keys[i];
+            }
+            orders.compareAndSet(statistic.ordinal(), null, order);
+            order = orders.get(statistic.ordinal());
+        }
+        return order;
+    }
+
+    /**
+     * Returns the rows whose value of the given statistic is between low and
+     * high, inclusive, smallest value first.
+     */
+    public int[] rowsBetween(Statistic statistic, double low, double high) {
+        int[] order = sortedBy(statistic);
+        int from = lowerBound(order, statistic, low);
+        int to = lowerBound(order, statistic, Math.nextUp(high));
+        return Arrays.copyOfRange(order, from, Math.max(from, to));
+    }
+
+    /**
+     * Returns true once the statistics have been computed, after which they
+     * no longer follow changes to the index.
+     */
+    boolean isBuilt() {
+        return built;
+    }
+
+    /**
+     * Returns the number of rows.
+     */
+    public int size() {
+        return (index != null) ? index.size() : rows;
+    }
+
+    /**
+     * Returns the position in the sorted order of the first row whose value
+     * is not less than value.
+     */
+    private int lowerBound(int[] order, Statistic statistic, double value) {
+        int low = 0;
+        int high = order.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (get(statistic, order[mid]) < value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns an int that sorts the same way as the statistic of the row.
+     * Floats are turned into ints whose order as signed numbers is the
+     * order of the floats.
+     */
+    private int sortKey(Statistic statistic, int row) {
+        switch (statistic) {
+        case SLOPE:
+            return sortable(slope[row]);
+        case VOLATILITY:
+            return sortable(volatility[row]);
+        default:
+            return (int) get(statistic, row);
+        }
+    }
+
+    private static int sortable(float value) {
+        int bits = Float.floatToIntBits(value);
+        return (bits < 0) ? bits ^ 0x7FFFFFFF : bits;
+    }
+
+    /**
+     * Computes every statistic of every row, the first time it is called.
+     */
+    private void build() {
+        if (built) {
+            return;
+        }
+        synchronized (this) {
+            if (built) {
+                return;
+            }
+            int size = index.size();
+            allocate(size);
+            int[] ranks = new int[index.getAxis().getCount()];
+            int maxRank = index.getAxis().getMaxRank();
+            for (int row = 0; row < size; row++) {
+                for (int j = 0; j < ranks.length; j++) {
+                    ranks[j] = index.rankAt(row, j);
+                }
+                store(row, ranks, maxRank);
+            }
+            built = true;
+        }
+    }
+
+    private void allocate(int size) {
+        peakRank = new short[size];
+        peakDecade = new short[size];
+        decadesOnChart = new short[size];
+        slope = new float[size];
+        volatility = new float[size];
+    }
+
+    /**
+     * Computes the statistics of one row from its ranks.
+     */
+    private void store(int row, int[] ranks, int maxRank) {
+        int n = ranks.length;
+        int best = 0;
+        int bestDecade = -1;
+        int onChart = 0;
+        double sumY = 0;
+        double sumXY = 0;
+        double sumSquaredChange = 0;
+        int previous = 0;
+        for (int j = 0; j < n; j++) {
+            int rank = ranks[j];
+            int popularity = 0;
+            if (rank > 0) {
+                onChart++;
+                popularity = maxRank + 1 - rank;
+                if (best == 0 || rank < best) {
+                    best = rank;
+                    bestDecade = j;
+                }
+            }
+            sumY += popularity;
+            sumXY += (double) j * popularity;
+            if (j > 0) {
+                double change = popularity - previous;
+                sumSquaredChange += change * change;
+            }
+            previous = popularity;
+        }
+        double meanX = (n - 1) / 2.0;
+        double sumSquaredX = n * (n * (double) n - 1) / 12.0;
+        peakRank[row] = (short) best;
+        peakDecade[row] = (short) bestDecade;
+        decadesOnChart[row] = (short) onChart;
+        slope[row] = (sumSquaredX == 0) ? 0
+                : (float) ((sumXY - meanX * sumY) / sumSquaredX);
+        volatility[row] = (n < 2) ? 0
+                : (float) Math.sqrt(sumSquaredChange / (n - 1));
+    }
+}
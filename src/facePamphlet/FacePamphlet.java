@@ -11,7 +11,7 @@ import acm.graphics.*;
 import acm.util.*;
 
 import java.awt.event.*;
-import java.util.Iterator;
+import java.util.List;
 
 import javax.swing.*;
 
@@ -57,6 +57,7 @@ public class FacePamphlet extends Program implements FacePamphletConstants {
         JButton changeStatus = new JButton("Change Status");
         JButton changePicture = new JButton("Change Picture");
         JButton addFriends = new JButton("Add Friends");
+        JButton connection = new JButton("Connection");
         add(status, WEST);
         add(changeStatus, WEST);
         add(new JLabel(EMPTY_LABEL_TEXT), WEST);
@@ -65,6 +66,7 @@ public class FacePamphlet extends Program implements FacePamphletConstants {
         add(new JLabel(EMPTY_LABEL_TEXT), WEST);
         add(friends, WEST);
         add(addFriends, WEST);
+        add(connection, WEST);
         
         // listeners
         addActionListeners();
@@ -83,8 +85,7 @@ public class FacePamphlet extends Program implements FacePamphletConstants {
         String cmd = e.getActionCommand();
         if (cmd.equals("Add") && !(name.getText().isEmpty())) {
             if (database.containsProfile(name.getText())) {
-                profile = new FacePamphletProfile(name.getText());
-                database.addProfile(profile);
+                profile = database.getProfile(name.getText());
                 canvas.showMessage(profile.getName() + " was already in the system.");
             } else {
                 profile = new FacePamphletProfile(name.getText());
@@ -137,19 +138,17 @@ public class FacePamphlet extends Program implements FacePamphletConstants {
             }
         }
         if (cmd.equals("Add Friends") || e.getSource() == friends && !(e.getActionCommand().isEmpty())) {
-            if (profile.getName().equals(friends.getText())) {
-                canvas.showMessage("You can't add yourself as a friend.");
-            }
-            else if (profile == null) {
+            if (profile == null) {
                 canvas.showMessage("choose a profile to update");
+            }
+            else if (profile.getName().equals(friends.getText())) {
+                canvas.showMessage("You can't add yourself as a friend.");
             } else {
                 if (database.containsProfile(friends.getText())) {
                     if (isFriendAlready()) {
                         canvas.showMessage("already friends with " + friends.getText());
                     } else {
-                        profile.addFriend(friends.getText());
-                        FacePamphletProfile theFriend = database.getProfile(friends.getText());
-                        theFriend.addFriend(profile.getName());
+                        database.addFriendship(profile.getName(), friends.getText());
                         canvas.displayProfile(profile);
                         canvas.showMessage(profile.getName() + " and " + friends.getText() + " are friends");
                     }
@@ -158,6 +157,33 @@ public class FacePamphlet extends Program implements FacePamphletConstants {
                 }
             }
         }
+        if (cmd.equals("Connection")) {
+            showConnection();
+        }
+    }
+
+    /**
+     * Shows the shortest chain of friends from the current profile to the
+     * profile named in the friends field.
+     */
+    private void showConnection() {
+        String other = friends.getText();
+        if (profile == null) {
+            canvas.showMessage("choose a profile first");
+        } else if (!database.containsProfile(other)) {
+            canvas.showMessage("this profile doesn't exist.");
+        } else {
+            List<FacePamphletProfile> chain = database.shortestChain(profile.getName(),
+                    other, MAX_CHAIN_LENGTH, CHAIN_TIME_BUDGET);
+            if (chain != null) {
+                canvas.displayChain(chain);
+            } else if (database.chainSearchTimedOut()) {
+                canvas.showMessage("couldn't find a connection to " + other + " in time");
+            } else {
+                canvas.showMessage(profile.getName() + " isn't connected to " + other
+                        + " within " + MAX_CHAIN_LENGTH + " friends");
+            }
+        }
     }
     
     /**
@@ -165,17 +191,7 @@ public class FacePamphlet extends Program implements FacePamphletConstants {
      * @return true if they are friends, false if not.
      */
     private boolean isFriendAlready() {
-        if (!(profile.getFriends().hasNext())) {
-            return false;
-        }
-        Iterator<String> it = profile.getFriends();
-        while (it.hasNext()) {
-            String friend = it.next();
-            if (friend.equals(friends.getText())) {
-                return true;
-            }
-        }
-        return false;
+        return profile.isFriend(friends.getText());
     }
 }
 
@@ -57,6 +57,33 @@ public class FacePamphletCanvas extends GCanvas implements
         showMessage("Displaying " + profile.getName());
     }
 
+    /**
+     * This method displays a chain of friends from its first profile to its
+     * last, one name per line, under a title giving the degrees of
+     * separation.  The canvas is cleared first.
+     */
+    public void displayChain(java.util.List<FacePamphletProfile> chain) {
+        removeAll();
+        FacePamphletProfile first = chain.get(0);
+        FacePamphletProfile last = chain.get(chain.size() - 1);
+        GLabel title = new GLabel(first.getName() + " and " + last.getName()
+                + ": " + (chain.size() - 1) + " degrees of separation");
+        title.setFont(PROFILE_NAME_FONT);
+        title.setColor(Color.BLUE);
+        add(title, LEFT_MARGIN, TOP_MARGIN + title.getHeight());
+        double y = TOP_MARGIN + NAME_HEIGHT + IMAGE_MARGIN;
+        for (int i = 0; i < chain.size(); i++) {
+            String prefix = (i == 0) ? "" : "is friends with ";
+            GLabel link = new GLabel(prefix + chain.get(i).getName());
+            link.setFont((i == 0 || i == chain.size() - 1)
+                    ? PROFILE_FRIEND_LABEL_FONT : PROFILE_FRIEND_FONT);
+            y += link.getHeight();
+            add(link, LEFT_MARGIN + i * IMAGE_MARGIN, y);
+        }
+        showMessage("Displaying the chain from " + first.getName() + " to "
+                + last.getName());
+    }
+
     /**
      * Adds a friend connection between two profiles. Updates both profiles
      * about the new connection.  Adds to the canvas the list of friends of this
@@ -85,6 +85,13 @@ public interface FacePamphletConstants {
 	 * The file name of the default image.
 	 */
 	public static final String IMAGE = "cat.gif";
+
+	/** The longest chain of friends, in friendships, that "Connection"
+	 *  looks for */
+	public static final int MAX_CHAIN_LENGTH = 6;
+
+	/** How long, in milliseconds, "Connection" may look for a chain */
+	public static final int CHAIN_TIME_BUDGET = 200;
 	
 }
 
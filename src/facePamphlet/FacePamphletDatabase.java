@@ -6,21 +6,142 @@ package facePamphlet;
  * This class keeps track of the profiles of all users in the
  * FacePamphlet application.  Note that profile names are case
  * sensitive, so that "ALICE" and "alice" are NOT the same name.
+ *
+ * Every name is given a small integer id by the database's
+ * FacePamphletIdTable, the one dictionary from names to ids, and the
+ * profiles are kept in an array indexed by id.  Who is friends with whom can
+ * be had as a FacePamphletGraph, a compact snapshot of every friendship
+ * that is built when it is first asked for.  Every change marks the
+ * profiles whose friends changed in a bitmap, and the next snapshot
+ * copies only their rows again.  The shortest chain of friends between
+ * two profiles is found on that snapshot.
+ *
+ * The database can be used from many threads at once.  Looking up a
+ * profile takes no lock: the array of profiles is split into chunks that
+ * are made when first needed and never moved, so a lookup is two reads.
+ * Every id is guarded by one of a fixed set of striped locks, and a
+ * change to a friendship holds the locks of both profiles, always taking
+ * the lock with the lower stripe number first so that two threads can
+ * never wait for each other.  A deleted profile is first marked as
+ * leaving, which hides it from lookups, and a friendship is only made
+ * while both profiles are in the array and not leaving, so a deleted
+ * profile is never left in anyone's friends.  It keeps its place in the
+ * array until all its friendships have been ended, so that a new profile
+ * with the same name, which has the same id, waits for it to be gone
+ * instead of having its new friendships ended by the old profile's
+ * delete.
  */
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 public class FacePamphletDatabase implements FacePamphletConstants {
 
-    HashMap<String, FacePamphletProfile> database = new HashMap<String, FacePamphletProfile>();
+    /* Profiles are kept in chunks of 2^CHUNK_BITS, for up to 2^27 ids */
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+    private static final int MAX_CHUNKS = 1 << 15;
+
+    /* The number of striped locks, a power of two */
+    private static final int STRIPES = 256;
+
+    private FacePamphletIdTable ids;
+    private AtomicReferenceArray<AtomicReferenceArray<FacePamphletProfile>> chunks =
+            new AtomicReferenceArray<AtomicReferenceArray<FacePamphletProfile>>(MAX_CHUNKS);
+    private Object[] stripes = new Object[STRIPES];
+    private AtomicInteger profileCount = new AtomicInteger();
+    private AtomicLong changes = new AtomicLong();
+    private AtomicReferenceArray<AtomicLongArray> dirty =
+            new AtomicReferenceArray<AtomicLongArray>(MAX_CHUNKS);
+    private volatile GraphSnapshot graph;
+    private final Object graphLock = new Object();
+    private FacePamphletPathFinder pathFinder;
+    private final Object pathFinderLock = new Object();
+    private ThreadLocal<Boolean> chainTimedOut = new ThreadLocal<Boolean>();
+
+    /**
+     * Creates an empty database that uses the shared id table, the one
+     * profiles use when they are not given a table of their own.
+     */
+    public FacePamphletDatabase() {
+        this(FacePamphletIdTable.SHARED);
+    }
+
+    /**
+     * Creates an empty database whose profiles are given ids by the given
+     * table.
+     */
+    public FacePamphletDatabase(FacePamphletIdTable ids) {
+        this.ids = ids;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Object();
+        }
+    }
 
     /**
      * This method adds the given profile to the database. If the name
      * associated with the profile is the same as an existing name in the
      * database, the existing profile is replaced by the new profile passed in.
+     * The replaced profile's friendships are ended first, so no profile is
+     * left listing a friend that doesn't list it back.  Friends the new
+     * profile already lists are made to list it back if they are in the
+     * database, and are dropped from it if they are not.
      */
     public void addProfile(FacePamphletProfile profile) {
-        database.put(profile.getName(), profile);
+        if (profile.getIdTable() != ids) {
+            throw new IllegalArgumentException(profile.getName()
+                    + " uses a different id table");
+        }
+        int id = profile.getId();
+        AtomicReferenceArray<FacePamphletProfile> chunk = chunkFor(id);
+        /*
+         * Counting a change before the profile can be seen means that
+         * anyone who finds it gets a snapshot at least as new as the
+         * change, so one that is big enough to hold its id.  The change
+         * counted after it is in makes the next snapshot copy its friends.
+         */
+        friendsChanged(id);
+        while (true) {
+            FacePamphletProfile old = chunk.get(id & CHUNK_MASK);
+            if (old != null) {
+                if (old.isLeaving()) {
+                    Thread.yield();
+                } else {
+                    delete(old);
+                }
+                continue;
+            }
+            synchronized (lockFor(id)) {
+                profile.setOwner(this);
+                profile.setLeaving(false);
+                if (chunk.compareAndSet(id & CHUNK_MASK, null, profile)) {
+                    break;
+                }
+            }
+        }
+        profileCount.incrementAndGet();
+        for (int friendId : profile.getFriendIds()) {
+            boolean removed = false;
+            boolean otherAdded = false;
+            synchronized (firstLock(id, friendId)) {
+                synchronized (secondLock(id, friendId)) {
+                    if (getProfile(id) != profile) {
+                        break;
+                    }
+                    FacePamphletProfile friend = getProfile(friendId);
+                    if (friend == null || friend == profile) {
+                        removed = profile.unlink(friendId);
+                    } else {
+                        otherAdded = friend.link(id);
+                    }
+                }
+            }
+            sidesChanged(id, removed, friendId, otherAdded);
+        }
+        friendsChanged(id);
     }
 
     /**
@@ -29,10 +150,28 @@ public class FacePamphletDatabase implements FacePamphletConstants {
      * method returns null.
      */
     public FacePamphletProfile getProfile(String name) {
-        if (!(database.containsKey(name))) {
+        return getProfile(ids.find(name));
+    }
+
+    /**
+     * Returns the profile with the given id, or null if there is none.
+     */
+    public FacePamphletProfile getProfile(int id) {
+        FacePamphletProfile profile = slot(id);
+        return (profile == null || profile.isLeaving()) ? null : profile;
+    }
+
+    /**
+     * Returns whatever profile holds the place of the given id, even one
+     * that is leaving, or null if there is none.
+     */
+    private FacePamphletProfile slot(int id) {
+        if (id < 0 || (id >>> CHUNK_BITS) >= MAX_CHUNKS) {
             return null;
         }
-        return database.get(name);
+        AtomicReferenceArray<FacePamphletProfile> chunk =
+                chunks.get(id >>> CHUNK_BITS);
+        return (chunk == null) ? null : chunk.get(id & CHUNK_MASK);
     }
 
     /**
@@ -44,17 +183,35 @@ public class FacePamphletDatabase implements FacePamphletConstants {
      * database is unchanged after calling this method.
      */
     public void deleteProfile(String name) {
-        if (!(database.containsKey(name))) {
-            return;
+        FacePamphletProfile profileToRemove = getProfile(name);
+        if (profileToRemove != null) {
+            delete(profileToRemove);
+        }
+    }
+
+    /**
+     * Marks the profile as leaving, if it is still in the database and no
+     * other thread is deleting it, ends every one of its friendships, and
+     * only then takes it out of the array.  No friendship can be made with
+     * the profile once it is leaving, so one pass over its friends is
+     * enough, and no profile can take its id until it is out.
+     */
+    private void delete(FacePamphletProfile profile) {
+        int id = profile.getId();
+        synchronized (lockFor(id)) {
+            if (slot(id) != profile || profile.isLeaving()) {
+                return;
+            }
+            profile.setLeaving(true);
         }
-        FacePamphletProfile profileToRemove = database.get(name);
-        Iterator<String> iterator = profileToRemove.getFriends();
-        while (iterator.hasNext()) {
-            String friend = iterator.next();
-            FacePamphletProfile profileOfFriend = database.get(friend);
-            profileOfFriend.removeFriend(profileToRemove.getName());
+        profileCount.decrementAndGet();
+        for (int friendId : profile.getFriendIds()) {
+            removeFriendship(profile, friendId);
         }
-        database.remove(name);
+        synchronized (lockFor(id)) {
+            chunkFor(id).compareAndSet(id & CHUNK_MASK, profile, null);
+        }
+        friendsChanged(id);
     }
 
     /**
@@ -62,10 +219,349 @@ public class FacePamphletDatabase implements FacePamphletConstants {
      * the given name. It returns false otherwise.
      */
     public boolean containsProfile(String name) {
-        if (database.containsKey(name)) {
-            return true;
+        return getProfile(name) != null;
+    }
+
+    /**
+     * Makes two profiles friends of each other.  Both must be in the
+     * database.  Both sides change together: no other thread sees one of
+     * them listing the other without the other listing it back.  If only
+     * one of them lists the other, the other side is added.
+     * @return boolean, true if either side was added, or false if they
+     * were friends already, or if one of them was deleted while this was
+     * called.
+     */
+    public boolean addFriendship(String name, String friend) {
+        FacePamphletProfile profile = getProfile(name);
+        FacePamphletProfile other = getProfile(friend);
+        if (profile == null || other == null) {
+            throw new IllegalArgumentException("No profile for "
+                    + ((profile == null) ? name : friend));
         }
-        return false;
+        return link(profile, other);
     }
 
+    /**
+     * Makes a profile of this database friends with the profile that has
+     * the given id, for FacePamphletProfile.addFriend.
+     * @return boolean, true if either side was added, or false if they
+     * were friends already, or if the profile is no longer in the
+     * database.
+     */
+    boolean addFriendship(FacePamphletProfile profile, int friendId) {
+        FacePamphletProfile other = getProfile(friendId);
+        if (other == null) {
+            throw new IllegalArgumentException("No profile has id "
+                    + friendId);
+        }
+        return link(profile, other);
+    }
+
+    /**
+     * Adds both sides of the friendship of two profiles while holding
+     * both their locks, if both are still in the database.
+     */
+    private boolean link(FacePamphletProfile profile,
+            FacePamphletProfile other) {
+        if (profile == other) {
+            return false;
+        }
+        int a = profile.getId();
+        int b = other.getId();
+        boolean added;
+        boolean otherAdded;
+        synchronized (firstLock(a, b)) {
+            synchronized (secondLock(a, b)) {
+                if (getProfile(a) != profile || getProfile(b) != other) {
+                    return false;
+                }
+                added = profile.link(b);
+                otherAdded = other.link(a);
+            }
+        }
+        sidesChanged(a, added, b, otherAdded);
+        return added || otherAdded;
+    }
+
+    /**
+     * Ends the friendship of two profiles, changing both sides together,
+     * even if only one of them lists the other.
+     * @return boolean, true if either side was removed, or false if they
+     * were not friends, or if the first one was replaced while this was
+     * called.
+     */
+    public boolean removeFriendship(String name, String friend) {
+        FacePamphletProfile profile = getProfile(name);
+        FacePamphletProfile other = getProfile(friend);
+        if (profile == null || other == null) {
+            return false;
+        }
+        return removeFriendship(profile, other.getId());
+    }
+
+    /**
+     * Ends the friendship of a profile of this database and whatever
+     * profile holds the given id, for FacePamphletProfile.removeFriend and
+     * for delete, which calls it on a profile that is leaving.
+     * @return boolean, true if either side was removed, or false if they
+     * were not friends, or if the profile is no longer in the database.
+     */
+    boolean removeFriendship(FacePamphletProfile profile, int friendId) {
+        int id = profile.getId();
+        boolean removed;
+        boolean otherRemoved = false;
+        synchronized (firstLock(id, friendId)) {
+            synchronized (secondLock(id, friendId)) {
+                if (slot(id) != profile) {
+                    return false;
+                }
+                removed = profile.unlink(friendId);
+                FacePamphletProfile friend = slot(friendId);
+                if (friend != null && friend != profile) {
+                    otherRemoved = friend.unlink(id);
+                }
+            }
+        }
+        sidesChanged(id, removed, friendId, otherRemoved);
+        return removed || otherRemoved;
+    }
+
+    /**
+     * Records whichever sides of a friendship changed.
+     */
+    private void sidesChanged(int a, boolean aChanged, int b,
+            boolean bChanged) {
+        if (aChanged) {
+            friendsChanged(a);
+        }
+        if (bChanged) {
+            friendsChanged(b);
+        }
+    }
+
+    /**
+     * Returns the number of profiles in the database.
+     */
+    public int getProfileCount() {
+        return profileCount.get();
+    }
+
+    /**
+     * Returns the table that gives the profiles of this database their ids.
+     */
+    public FacePamphletIdTable getIdTable() {
+        return ids;
+    }
+
+    /**
+     * Returns a snapshot of every friendship in the database.  The same
+     * snapshot is returned until a friendship changes, and after that the
+     * next snapshot is the last one with the rows of the changed profiles
+     * copied again.
+     */
+    public FacePamphletGraph getGraph() {
+        GraphSnapshot snapshot = graph;
+        if (snapshot != null && snapshot.version == changes.get()) {
+            return snapshot.graph;
+        }
+        synchronized (graphLock) {
+            long version = changes.get();
+            snapshot = graph;
+            if (snapshot == null) {
+                takeDirtyIds();
+                snapshot = new GraphSnapshot(version, FacePamphletGraph.of(this));
+            } else if (snapshot.version != version) {
+                int[] changed = takeDirtyIds();
+                snapshot = new GraphSnapshot(version,
+                        snapshot.graph.update(this, changed, changed.length));
+            }
+            graph = snapshot;
+            return snapshot.graph;
+        }
+    }
+
+    /**
+     * Returns the shortest chain of friends from one profile to another,
+     * with no limit on its length or on the time taken.
+     */
+    public List<FacePamphletProfile> shortestChain(String from, String to) {
+        return shortestChain(from, to, FacePamphletPathFinder.NO_LIMIT,
+                FacePamphletPathFinder.NO_LIMIT);
+    }
+
+    /**
+     * Returns the shortest chain of friends from one profile to another.
+     * The chain starts with the first profile and ends with the second, so
+     * it is one longer than the degrees of separation.
+     * @param maxLength, int, the largest number of friendships the chain
+     * may have, or FacePamphletPathFinder.NO_LIMIT.
+     * @param budgetMillis, int, how long the search may take, or
+     * FacePamphletPathFinder.NO_LIMIT.
+     * @return List<FacePamphletProfile>, the chain, or null if either
+     * profile doesn't exist, there is no chain within the limits, or a
+     * profile on the chain was deleted while it was being found.
+     */
+    public List<FacePamphletProfile> shortestChain(String from, String to,
+            int maxLength, int budgetMillis) {
+        FacePamphletProfile start = getProfile(from);
+        FacePamphletProfile goal = getProfile(to);
+        if (start == null || goal == null) {
+            return null;
+        }
+        FacePamphletGraph snapshot = getGraph();
+        if (start.getId() >= snapshot.size()
+                || goal.getId() >= snapshot.size()) {
+            return null;
+        }
+        int[] path;
+        synchronized (pathFinderLock) {
+            if (pathFinder == null) {
+                pathFinder = new FacePamphletPathFinder(snapshot);
+            } else {
+                pathFinder.setGraph(snapshot);
+            }
+            path = pathFinder.shortestPath(start.getId(), goal.getId(),
+                    maxLength, budgetMillis);
+            chainTimedOut.set(pathFinder.timedOut());
+        }
+        if (path == null) {
+            return null;
+        }
+        List<FacePamphletProfile> chain = new ArrayList<FacePamphletProfile>(path.length);
+        for (int id : path) {
+            FacePamphletProfile profile = getProfile(id);
+            if (profile == null) {
+                return null;
+            }
+            chain.add(profile);
+        }
+        return chain;
+    }
+
+    /**
+     * Returns true if the last call to shortestChain on this thread that
+     * found no chain ran out of time before it could tell whether there was
+     * one.
+     */
+    public boolean chainSearchTimedOut() {
+        return Boolean.TRUE.equals(chainTimedOut.get());
+    }
+
+    /**
+     * Called when a profile comes or goes, or when a friend is added to
+     * or removed from a profile of this database, after its lock has been
+     * let go.  The profile is marked before the count of changes goes up,
+     * so a snapshot made for the new count always copies it again.
+     */
+    void friendsChanged(int id) {
+        markDirty(id);
+        changes.incrementAndGet();
+    }
+
+    /**
+     * Returns the lock that guards the friends of the profile with the
+     * given id.
+     */
+    Object lockFor(int id) {
+        return stripes[id & (STRIPES - 1)];
+    }
+
+    /*
+     * The two locks guarding a pair of profiles, the one with the lower
+     * stripe number first.  They are the same lock when both ids fall in
+     * the same stripe, and taking it twice is allowed.
+     */
+
+    private Object firstLock(int a, int b) {
+        return stripes[Math.min(a & (STRIPES - 1), b & (STRIPES - 1))];
+    }
+
+    private Object secondLock(int a, int b) {
+        return stripes[Math.max(a & (STRIPES - 1), b & (STRIPES - 1))];
+    }
+
+    /**
+     * Returns the chunk that holds the given id, making it if needed.
+     */
+    private AtomicReferenceArray<FacePamphletProfile> chunkFor(int id) {
+        int index = id >>> CHUNK_BITS;
+        if (index >= MAX_CHUNKS) {
+            throw new IllegalStateException("Too many profiles");
+        }
+        AtomicReferenceArray<FacePamphletProfile> chunk = chunks.get(index);
+        if (chunk == null) {
+            chunks.compareAndSet(index, null,
+                    new AtomicReferenceArray<FacePamphletProfile>(CHUNK_MASK + 1));
+            chunk = chunks.get(index);
+        }
+        return chunk;
+    }
+
+    /**
+     * Sets the bit of the given id in the bitmap of profiles whose friends
+     * changed since the last snapshot.
+     */
+    private void markDirty(int id) {
+        int index = id >>> CHUNK_BITS;
+        AtomicLongArray words = dirty.get(index);
+        if (words == null) {
+            dirty.compareAndSet(index, null,
+                    new AtomicLongArray((CHUNK_MASK + 1) >>> 6));
+            words = dirty.get(index);
+        }
+        int word = (id & CHUNK_MASK) >>> 6;
+        long bit = 1L << (id & 63);
+        while (true) {
+            long bits = words.get(word);
+            if ((bits & bit) != 0
+                    || words.compareAndSet(word, bits, bits | bit)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Clears the bitmap of changed profiles and returns the ids that were
+     * set in it.
+     */
+    private int[] takeDirtyIds() {
+        int[] taken = new int[16];
+        int count = 0;
+        int chunkCount = (ids.size() + CHUNK_MASK) >>> CHUNK_BITS;
+        for (int index = 0; index < chunkCount; index++) {
+            AtomicLongArray words = dirty.get(index);
+            if (words == null) {
+                continue;
+            }
+            for (int word = 0; word < words.length(); word++) {
+                if (words.get(word) == 0) {
+                    continue;
+                }
+                long bits = words.getAndSet(word, 0);
+                while (bits != 0) {
+                    if (count == taken.length) {
+                        taken = Arrays.copyOf(taken, 2 * count);
+                    }
+                    taken[count++] = (index << CHUNK_BITS) + (word << 6)
+                            + Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                }
+            }
+        }
+        return Arrays.copyOf(taken, count);
+    }
+
+    /**
+     * A graph and the number of changes that had been made when it was
+     * started.  A snapshot is out of date once more changes are made.
+     */
+    private static class GraphSnapshot {
+        private final long version;
+        private final FacePamphletGraph graph;
+
+        GraphSnapshot(long version, FacePamphletGraph graph) {
+            this.version = version;
+            this.graph = graph;
+        }
+    }
 }
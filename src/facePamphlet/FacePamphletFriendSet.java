@@ -0,0 +1,177 @@
+package facePamphlet;
+
+/*
+ * File: FacePamphletFriendSet.java
+ * --------------------------------
+ * This class is a set of profile ids that remembers the order in which
+ * they were added, so that friends are shown in the order they were made.
+ * The ids are kept in an array in the order they were added, and an open
+ * addressing hash table maps each id to its place in that array, so
+ * adding, removing and checking for an id take constant time no matter
+ * how many friends a profile has.  A removed id leaves a hole in the
+ * array; once half the array is holes it is packed again, which keeps
+ * the cost of removing constant on average.  An empty set shares its
+ * arrays with every other empty set, so a profile with no friends costs
+ * almost nothing.  A set is not safe to use from several threads at
+ * once; FacePamphletProfile guards its set with a lock.
+ */
+
+public class FacePamphletFriendSet {
+
+    private static final int INITIAL_CAPACITY = 8;
+    private static final int REMOVED = -1;
+    private static final int[] NO_IDS = new int[0];
+    private static final int[] NO_SLOTS = new int[1];
+
+    /* The ids in the order they were added, with REMOVED in the holes */
+    private int[] order = NO_IDS;
+    private int end;
+
+    /* For every slot, one more than the place of its id in order, or 0 */
+    private int[] slots = NO_SLOTS;
+    private int size;
+
+    /**
+     * Adds an id to the set.
+     * @param id, int, the id to add; ids are never negative.
+     * @return boolean, true if the id was not already in the set.
+     */
+    public boolean add(int id) {
+        int slot = slotOf(id);
+        if (slots[slot] != 0) {
+            return false;
+        }
+        if (end == order.length) {
+            grow();
+            slot = slotOf(id);
+        }
+        order[end] = id;
+        slots[slot] = ++end;
+        size++;
+        return true;
+    }
+
+    /**
+     * Removes an id from the set.
+     * @return boolean, true if the id was in the set.
+     */
+    public boolean remove(int id) {
+        int slot = slotOf(id);
+        if (slots[slot] == 0) {
+            return false;
+        }
+        order[slots[slot] - 1] = REMOVED;
+        deleteSlot(slot);
+        size--;
+        if (end - size > size && end > INITIAL_CAPACITY) {
+            rebuild(order.length);
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the id is in the set.
+     */
+    public boolean contains(int id) {
+        return slots[slotOf(id)] != 0;
+    }
+
+    /**
+     * Returns the number of ids in the set.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the ids in the set in the order they were added.
+     */
+    public int[] toArray() {
+        int[] result = new int[size];
+        int count = 0;
+        for (int i = 0; i < end; i++) {
+            if (order[i] != REMOVED) {
+                result[count++] = order[i];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the slot that holds the id, or the empty slot where it would
+     * go if it is not in the set.
+     */
+    private int slotOf(int id) {
+        int mask = slots.length - 1;
+        int slot = mix(id) & mask;
+        while (slots[slot] != 0 && order[slots[slot] - 1] != id) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Empties a slot and moves later slots of the same run back into it, so
+     * that every id can still be found from its home slot.
+     */
+    private void deleteSlot(int slot) {
+        int mask = slots.length - 1;
+        int hole = slot;
+        int next = (hole + 1) & mask;
+        while (slots[next] != 0) {
+            int home = mix(order[slots[next] - 1]) & mask;
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                slots[hole] = slots[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        slots[hole] = 0;
+    }
+
+    /**
+     * Makes room for more ids, packing out the holes first if that frees
+     * enough room.
+     */
+    private void grow() {
+        if (order.length == 0) {
+            rebuild(INITIAL_CAPACITY);
+        } else {
+            rebuild((size < order.length / 2) ? order.length
+                    : order.length * 2);
+        }
+    }
+
+    /**
+     * Packs the ids to the front of an order array of the given capacity
+     * and builds the hash table again around them.
+     */
+    private void rebuild(int capacity) {
+        int[] newOrder = new int[capacity];
+        int count = 0;
+        for (int i = 0; i < end; i++) {
+            if (order[i] != REMOVED) {
+                newOrder[count++] = order[i];
+            }
+        }
+        order = newOrder;
+        end = count;
+        slots = new int[2 * capacity];
+        int mask = slots.length - 1;
+        for (int i = 0; i < count; i++) {
+            int slot = mix(order[i]) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = i + 1;
+        }
+    }
+
+    /**
+     * Spreads the bits of an id, since ids are small consecutive numbers.
+     */
+    private static int mix(int id) {
+        int h = id * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,236 @@
+package facePamphlet;
+
+/*
+ * File: FacePamphletGraph.java
+ * ----------------------------
+ * This class is a snapshot of who is friends with whom, stored in
+ * compressed sparse row form.  Profiles are the ids of a
+ * FacePamphletIdTable.  The friends of every profile are one sorted run of
+ * a single int array, and a second array gives where each profile's run
+ * starts, so the whole network costs four bytes per profile plus four
+ * bytes for each direction of each friendship, with no objects per
+ * profile or per friendship.  A graph never changes once it is built.
+ *
+ * FacePamphletDatabase keeps its graph up to date by asking for a new one
+ * that replaces only the rows of the profiles whose friends changed.  The
+ * new graph shares the two big arrays with the old one and keeps the
+ * replaced rows in chunks of its own, so making it costs time in
+ * proportion to the number of profiles rather than the number of
+ * friendships, and a chunk is copied only if one of its rows changed.
+ * Once the replaced rows hold a good part of the friendships, the graph is
+ * built again from scratch with every row in the big arrays.
+ */
+
+import java.util.*;
+
+public class FacePamphletGraph {
+
+    /* Replaced rows are kept in chunks of 2^CHUNK_BITS ids */
+    private static final int CHUNK_BITS = 10;
+    private static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+
+    /* The most friendships kept in replaced rows before a rebuild */
+    private static final int MIN_REBUILD_ENTRIES = 4096;
+
+    private static final int[] NO_FRIENDS = new int[0];
+    private static final int[][][] NO_CHUNKS = new int[0][][];
+
+    private final int size;
+    private final int[] offsets;
+    private final int[] targets;
+    private final int[][][] replaced;
+    private final long replacedEntries;
+    private final long entries;
+
+    /*
+     * Creates a graph from its arrays.  The friends of a profile id are
+     * its row in replaced if it has one, and otherwise targets[offsets[id]]
+     * up to targets[offsets[id + 1]], or none if id is past the end of
+     * offsets.  Every row is in increasing order.
+     */
+    private FacePamphletGraph(int size, int[] offsets, int[] targets,
+            int[][][] replaced, long replacedEntries, long entries) {
+        this.size = size;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.replaced = replaced;
+        this.replacedEntries = replacedEntries;
+        this.entries = entries;
+    }
+
+    /**
+     * Builds the graph of the friendships of the profiles of a database.
+     * Each profile's friends are copied from it in turn, so if the database
+     * is being changed at the same time the graph shows each profile's
+     * friends as they were when that profile was copied.
+     * @param database, FacePamphletDatabase, the database.
+     * @return FacePamphletGraph, the graph.
+     */
+    public static FacePamphletGraph of(FacePamphletDatabase database) {
+        int size = database.getIdTable().size();
+        int[] offsets = new int[size + 1];
+        int[] targets = new int[16];
+        int count = 0;
+        int largest = size - 1;
+        for (int id = 0; id < size; id++) {
+            int[] friends = friendsOf(database, id);
+            if (count + friends.length > targets.length) {
+                targets = Arrays.copyOf(targets, Math.max(
+                        count + friends.length, 2 * targets.length));
+            }
+            System.arraycopy(friends, 0, targets, count, friends.length);
+            count += friends.length;
+            offsets[id + 1] = count;
+            if (friends.length > 0) {
+                largest = Math.max(largest, friends[friends.length - 1]);
+            }
+        }
+        return new FacePamphletGraph(largest + 1, offsets,
+                Arrays.copyOf(targets, count), NO_CHUNKS, 0, count);
+    }
+
+    /**
+     * Returns a graph that is this one with the rows of the given profiles
+     * copied again from the database.  An id may be given more than once.
+     * @param database, FacePamphletDatabase, the database this graph was
+     * built from.
+     * @param ids, int[], the profiles whose friends may have changed.
+     * @param count, int, how many of the ids to use.
+     * @return FacePamphletGraph, the new graph.
+     */
+    FacePamphletGraph update(FacePamphletDatabase database, int[] ids,
+            int count) {
+        int largest = Math.max(size, database.getIdTable().size()) - 1;
+        int[][][] chunks = Arrays.copyOf(replaced,
+                Math.max(replaced.length, chunkCount(largest + 1)));
+        long newReplaced = replacedEntries;
+        long newEntries = entries;
+        for (int i = 0; i < count; i++) {
+            int id = ids[i];
+            int[] friends = friendsOf(database, id);
+            if (friends.length > 0) {
+                largest = Math.max(largest, friends[friends.length - 1]);
+            }
+            int chunk = id >>> CHUNK_BITS;
+            if (chunk >= chunks.length) {
+                chunks = Arrays.copyOf(chunks, chunk + 1);
+            }
+            if (chunks[chunk] == null) {
+                chunks[chunk] = new int[CHUNK_MASK + 1][];
+            } else if (chunk < replaced.length
+                    && chunks[chunk] == replaced[chunk]) {
+                chunks[chunk] = chunks[chunk].clone();
+            }
+            int[] old = chunks[chunk][id & CHUNK_MASK];
+            if (old != null) {
+                newReplaced -= old.length;
+                newEntries -= old.length;
+            } else {
+                newEntries -= baseDegree(id);
+            }
+            chunks[chunk][id & CHUNK_MASK] = friends;
+            newReplaced += friends.length;
+            newEntries += friends.length;
+        }
+        if (newReplaced > Math.max(MIN_REBUILD_ENTRIES, targets.length / 2)) {
+            return of(database);
+        }
+        return new FacePamphletGraph(largest + 1, offsets, targets, chunks,
+                newReplaced, newEntries);
+    }
+
+    /**
+     * Returns the number of ids in the graph.  Every profile and friend in
+     * the graph has an id smaller than this.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of friendships, counting each pair of friends once.
+     */
+    public int getFriendshipCount() {
+        return (int) (entries / 2);
+    }
+
+    /**
+     * Returns the number of friends of the given profile.
+     */
+    public int degree(int id) {
+        int[] row = replacedRow(id);
+        return (row != null) ? row.length : baseDegree(id);
+    }
+
+    /**
+     * Returns the array that holds the friends of the given profile.  The
+     * friends are row(id)[start(id)] up to, but not including,
+     * row(id)[end(id)], in increasing order, so they can be walked without
+     * copying.  The array must not be changed.
+     */
+    public int[] row(int id) {
+        int[] row = replacedRow(id);
+        return (row != null) ? row : targets;
+    }
+
+    /**
+     * Returns the position of the first friend of the given profile in its
+     * row.
+     */
+    public int start(int id) {
+        if (replacedRow(id) != null) {
+            return 0;
+        }
+        return (id < offsets.length - 1) ? offsets[id] : 0;
+    }
+
+    /**
+     * Returns the position just past the last friend of the given profile
+     * in its row.
+     */
+    public int end(int id) {
+        int[] row = replacedRow(id);
+        if (row != null) {
+            return row.length;
+        }
+        return (id < offsets.length - 1) ? offsets[id + 1] : 0;
+    }
+
+    /**
+     * Returns the row that replaced the given profile's, or null if it was
+     * not replaced.
+     */
+    private int[] replacedRow(int id) {
+        int chunk = id >>> CHUNK_BITS;
+        if (chunk >= replaced.length || replaced[chunk] == null) {
+            return null;
+        }
+        return replaced[chunk][id & CHUNK_MASK];
+    }
+
+    /**
+     * Returns the number of friends the given profile has in the big
+     * arrays.
+     */
+    private int baseDegree(int id) {
+        return (id < offsets.length - 1) ? offsets[id + 1] - offsets[id] : 0;
+    }
+
+    private static int chunkCount(int size) {
+        return (size + CHUNK_MASK) >>> CHUNK_BITS;
+    }
+
+    /**
+     * Returns the friends of a profile of the database in increasing order,
+     * or none if there is no such profile.
+     */
+    private static int[] friendsOf(FacePamphletDatabase database, int id) {
+        FacePamphletProfile profile = database.getProfile(id);
+        if (profile == null) {
+            return NO_FRIENDS;
+        }
+        int[] friends = profile.getFriendIds();
+        Arrays.sort(friends);
+        return friends;
+    }
+}
@@ -0,0 +1,81 @@
+package facePamphlet;
+
+/*
+ * File: FacePamphletIdTable.java
+ * ------------------------------
+ * This class gives every profile name a small integer id, so that the
+ * friends of a profile can be kept as a set of ints instead of a list of
+ * names.  Ids are handed out in order starting at 0 and a name keeps its
+ * id for as long as the table exists, even after its profile is deleted,
+ * so an id always means the same name.  Like the database, the table is
+ * case sensitive.
+ *
+ * The table can be used from many threads.  Looking up a name or an id
+ * takes no lock; only giving a new name its id does.
+ */
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class FacePamphletIdTable {
+
+    /** The table shared by profiles that are not given one of their own */
+    public static final FacePamphletIdTable SHARED = new FacePamphletIdTable();
+
+    private ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+    private volatile String[] names = new String[16];
+    private volatile int size;
+
+    /**
+     * Returns the id of the given name, giving it the next free id if it
+     * doesn't have one yet.
+     * @param name, String, the profile name.
+     * @return int, the id of the name.
+     */
+    public int idOf(String name) {
+        Integer id = ids.get(name);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            id = ids.get(name);
+            if (id == null) {
+                id = size;
+                if (id == names.length) {
+                    names = Arrays.copyOf(names, id * 2);
+                }
+                names[id] = name;
+                size = id + 1;
+                ids.put(name, id);
+            }
+            return id;
+        }
+    }
+
+    /**
+     * Returns the id of the given name, or -1 if the name has never been
+     * given one.  Unlike idOf, this never adds the name.
+     */
+    public int find(String name) {
+        Integer id = ids.get(name);
+        return (id == null) ? -1 : id;
+    }
+
+    /**
+     * Returns the name with the given id.
+     */
+    public String nameOf(int id) {
+        if (id >= size) {
+            throw new IndexOutOfBoundsException("No name has id " + id);
+        }
+        return names[id];
+    }
+
+    /**
+     * Returns the number of names that have been given an id, which is one
+     * more than the largest id.
+     */
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,211 @@
+package facePamphlet;
+
+/*
+ * File: FacePamphletPathFinder.java
+ * ---------------------------------
+ * This class finds the shortest chain of friends between two profiles of
+ * a FacePamphletGraph: the degrees of separation.  It searches breadth
+ * first from both ends at once, always growing the side whose frontier is
+ * smaller by one whole level, and stops at the level where the two sides
+ * meet.  Each side only has to reach about half way, which on a large
+ * network visits a tiny fraction of the profiles a one-sided search would.
+ *
+ * The queues, the parent links and the marks saying which side has seen a
+ * profile are int arrays as long as the graph, made once and used again by
+ * every search.  A mark is the number of the search that set it, so
+ * starting a search clears every mark just by counting up, and nothing is
+ * allocated per profile.  A search can be limited to chains of a given
+ * length and to a time budget.
+ */
+
+import java.util.*;
+
+public class FacePamphletPathFinder {
+
+    /** Used as the length or time limit of a search that has none */
+    public static final int NO_LIMIT = Integer.MAX_VALUE;
+
+    /* How many profiles are expanded between looks at the clock */
+    private static final int CLOCK_INTERVAL = 1024;
+
+    private FacePamphletGraph graph;
+    private int search;
+    private boolean timedOut;
+
+    /* Indexed by side: 0 grows from the start, 1 from the goal */
+    private int[][] seen = new int[2][];
+    private int[][] parent = new int[2][];
+    private int[][] queue = new int[2][];
+
+    /**
+     * Creates a path finder over the given graph.
+     */
+    public FacePamphletPathFinder(FacePamphletGraph graph) {
+        setGraph(graph);
+    }
+
+    /**
+     * Switches to another graph, such as a newer snapshot of the same
+     * network.  The arrays are kept if they are big enough for it.
+     */
+    public void setGraph(FacePamphletGraph graph) {
+        this.graph = graph;
+        int size = graph.size();
+        if (seen[0] == null || seen[0].length < size) {
+            for (int side = 0; side < 2; side++) {
+                seen[side] = new int[size];
+                parent[side] = new int[size];
+                queue[side] = new int[size];
+            }
+            search = 0;
+        }
+    }
+
+    /**
+     * Returns the shortest chain of friends between two profiles, with no
+     * limit on its length or on the time taken to find it.
+     */
+    public int[] shortestPath(int from, int to) {
+        return shortestPath(from, to, NO_LIMIT, NO_LIMIT);
+    }
+
+    /**
+     * Returns the shortest chain of friends between two profiles.
+     * @param from, int, the id of the first profile.
+     * @param to, int, the id of the last profile.
+     * @param maxLength, int, the largest number of friendships the chain
+     * may have, or NO_LIMIT.
+     * @param budgetMillis, int, how long the search may take, or NO_LIMIT.
+     * @return int[], the ids of the profiles along the chain, starting with
+     * from and ending with to, or null if there is no chain within the
+     * limits.  After a null, timedOut tells whether time ran out.
+     */
+    public int[] shortestPath(int from, int to, int maxLength,
+            int budgetMillis) {
+        timedOut = false;
+        if (from == to) {
+            return new int[] { from };
+        }
+        long deadline = (budgetMillis == NO_LIMIT) ? Long.MAX_VALUE
+                : System.nanoTime() + budgetMillis * 1000000L;
+        startSearch();
+        int[] head = new int[2];
+        int[] tail = new int[2];
+        int[] depth = new int[2];
+        start(0, from, tail);
+        start(1, to, tail);
+        int work = 0;
+        int bestLength = Integer.MAX_VALUE;
+        int bestNear = -1;
+        int bestFar = -1;
+        int bestSide = 0;
+        while (head[0] < tail[0] && head[1] < tail[1]
+                && depth[0] + depth[1] < maxLength) {
+            int side = (tail[0] - head[0] <= tail[1] - head[1]) ? 0 : 1;
+            int other = 1 - side;
+            int[] mine = seen[side];
+            int[] theirs = seen[other];
+            int[] links = parent[side];
+            int[] line = queue[side];
+            int end = tail[side];
+            for (int i = head[side]; i < end; i++) {
+                if (++work == CLOCK_INTERVAL) {
+                    work = 0;
+                    if (System.nanoTime() > deadline) {
+                        timedOut = true;
+                        return null;
+                    }
+                }
+                int node = line[i];
+                int[] friends = graph.row(node);
+                for (int e = graph.start(node), last = graph.end(node);
+                        e < last; e++) {
+                    int next = friends[e];
+                    if (theirs[next] == search) {
+                        int length = depth[side] + 1 + distance(other, next);
+                        if (length < bestLength) {
+                            bestLength = length;
+                            bestNear = node;
+                            bestFar = next;
+                            bestSide = side;
+                        }
+                    } else if (mine[next] != search) {
+                        mine[next] = search;
+                        links[next] = node;
+                        line[tail[side]++] = next;
+                    }
+                }
+            }
+            head[side] = end;
+            depth[side]++;
+            if (bestNear >= 0) {
+                return (bestLength <= maxLength)
+                        ? chain(bestSide, bestNear, bestFar, bestLength)
+                        : null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns true if the last search that found nothing gave up because
+     * its time ran out, rather than because there is no chain short enough.
+     */
+    public boolean timedOut() {
+        return timedOut;
+    }
+
+    /**
+     * Begins a new search, which makes every old mark stale.  When the
+     * search number would wrap around the marks are cleared for real.
+     */
+    private void startSearch() {
+        if (search == Integer.MAX_VALUE) {
+            Arrays.fill(seen[0], 0);
+            Arrays.fill(seen[1], 0);
+            search = 0;
+        }
+        search++;
+    }
+
+    private void start(int side, int node, int[] tail) {
+        seen[side][node] = search;
+        parent[side][node] = -1;
+        queue[side][0] = node;
+        tail[side] = 1;
+    }
+
+    /**
+     * Returns how many friendships a profile is from where the given side
+     * started, by following its parent links.
+     */
+    private int distance(int side, int node) {
+        int steps = 0;
+        for (int n = parent[side][node]; n >= 0; n = parent[side][n]) {
+            steps++;
+        }
+        return steps;
+    }
+
+    /**
+     * Joins the two halves of the chain that meet where the side reached
+     * far from near, in order from the start to the goal.
+     */
+    private int[] chain(int side, int near, int far, int length) {
+        int[] path = new int[length + 1];
+        int nearIndex = distance(side, near);
+        int farIndex = nearIndex + 1;
+        if (side == 1) {
+            nearIndex = length - nearIndex;
+            farIndex = nearIndex - 1;
+        }
+        int step = (side == 0) ? -1 : 1;
+        for (int n = near, i = nearIndex; n >= 0; n = parent[side][n], i += step) {
+            path[i] = n;
+        }
+        for (int n = far, i = farIndex; n >= 0; n = parent[1 - side][n], i -= step) {
+            path[i] = n;
+        }
+        return path;
+    }
+}
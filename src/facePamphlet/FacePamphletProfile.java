@@ -6,7 +6,15 @@ package facePamphlet;
  * in the FacePamphlet social network.  Each profile contains a
  * name, an image (which may not always be set), a status (what 
  * the person is currently doing, which may not always be set),
- * and a list of friends.
+ * and a list of friends.  Friends are kept as a set of the ids that
+ * a FacePamphletIdTable gives their names, so adding, removing or
+ * checking for a friend takes the same time however many friends the
+ * profile has.
+ *
+ * A profile can be used from many threads.  Its friends are guarded by
+ * the lock its database gives its id, or by the profile itself when it
+ * is in no database, so that the database can change both sides of a
+ * friendship while holding both profiles' locks.
  */
 
 import acm.graphics.*;
@@ -15,12 +23,31 @@ import java.util.*;
 public class FacePamphletProfile implements FacePamphletConstants {
     
     private String name;
-    private GImage image;
-    private String status;
-    private List<String> friends = new ArrayList<String>();
+    private volatile GImage image;
+    private volatile String status;
+    private FacePamphletIdTable ids;
+    private int id;
+    private FacePamphletFriendSet friends = new FacePamphletFriendSet();
+    private volatile FacePamphletDatabase owner;
+    private volatile boolean leaving;
+    private volatile int changes;
 	
+	/**
+	 * Creates a profile whose friends' names are given ids by the shared
+	 * id table.
+	 */
 	public FacePamphletProfile(String name) {
+		this(name, FacePamphletIdTable.SHARED);
+	}
+
+	/**
+	 * Creates a profile whose friends' names are given ids by the given
+	 * table.  Profiles that can be friends must use the same table.
+	 */
+	public FacePamphletProfile(String name, FacePamphletIdTable ids) {
 		this.name = name;
+		this.ids = ids;
+		this.id = ids.idOf(name);
 	}
 
 	/** This method returns the name associated with the profile. */ 
@@ -28,6 +55,42 @@ public class FacePamphletProfile implements FacePamphletConstants {
 		return name;
 	}
 
+	/** This method returns the id the id table gave this profile's name. */
+	public int getId() {
+		return id;
+	}
+
+	/** This method returns the table that gives this profile's friends ids. */
+	public FacePamphletIdTable getIdTable() {
+		return ids;
+	}
+
+	/**
+	 * Sets the database this profile is in, which is told whenever the
+	 * profile's friends change.
+	 */
+	void setOwner(FacePamphletDatabase owner) {
+		this.owner = owner;
+	}
+
+	/**
+	 * Marks the profile as on its way out of its database, which sees it
+	 * as gone while its friendships are being ended.
+	 */
+	void setLeaving(boolean leaving) {
+		this.leaving = leaving;
+	}
+
+	boolean isLeaving() {
+		return leaving;
+	}
+
+	/** Returns the lock that guards this profile's friends. */
+	Object lock() {
+	    FacePamphletDatabase database = owner;
+		return (database == null) ? this : database.lockFor(id);
+	}
+
 	/** 
 	 * This method returns the image associated with the profile.  
 	 * If there is no image associated with the profile, the method
@@ -71,15 +134,34 @@ public class FacePamphletProfile implements FacePamphletConstants {
 	 * to the list).  The method returns false if the given friend name
 	 * was already in the list of friends for this profile (in which 
 	 * case, the given friend name is not added to the list of friends 
-	 * a second time.)
+	 * a second time.)  Once the profile is in a database the friend must
+	 * be too, and both profiles list each other, as with
+	 * FacePamphletDatabase.addFriendship.
 	 */
 	public boolean addFriend(String friend) {
-	    if (friends.contains(friend)) {
-	        return false;
-	    } else {
-	        friends.add(friend);
+	    FacePamphletDatabase database = owner;
+	    if (database == null) {
+	        return addFriend(ids.idOf(friend));
 	    }
-		return true;
+	    int friendId = ids.find(friend);
+	    if (friendId < 0 || database.getProfile(friendId) == null) {
+	        throw new IllegalArgumentException("No profile for " + friend);
+	    }
+		return database.addFriendship(this, friendId);
+	}
+
+	/**
+	 * This method adds the friend with the given id to this profile's
+	 * list of friends, and returns true if it was not already there.
+	 * Once the profile is in a database the friend is added on both
+	 * sides, and must be in the database too.
+	 */
+	public boolean addFriend(int friendId) {
+	    FacePamphletDatabase database = owner;
+	    if (database != null) {
+	        return database.addFriendship(this, friendId);
+	    }
+		return link(friendId);
 	}
 
 	/** 
@@ -91,21 +173,122 @@ public class FacePamphletProfile implements FacePamphletConstants {
 	 * the given friend name could not be removed.)
 	 */
 	public boolean removeFriend(String friend) {
-	    if (!(friends.contains(friend))) {
-	        return false;
-	    } else {
-	        friends.remove(friends.indexOf(friend));
+	    int friendId = ids.find(friend);
+		return friendId >= 0 && removeFriend(friendId);
+	}
+
+	/**
+	 * This method removes the friend with the given id from this
+	 * profile's list of friends, and returns true if it was there.  Once
+	 * the profile is in a database the friend is removed on both sides.
+	 */
+	public boolean removeFriend(int friendId) {
+	    FacePamphletDatabase database = owner;
+	    if (database != null) {
+	        return database.removeFriendship(this, friendId);
+	    }
+		return unlink(friendId);
+	}
+
+	/**
+	 * Adds a friend without telling the database, which calls this while
+	 * it holds the locks of both profiles and records the change after
+	 * letting go of them.
+	 */
+	boolean link(int friendId) {
+	    synchronized (lock()) {
+	        if (!friends.add(friendId)) {
+	            return false;
+	        }
+	        changes++;
+	        return true;
+	    }
+	}
+
+	/**
+	 * Removes a friend without telling the database.
+	 */
+	boolean unlink(int friendId) {
+	    synchronized (lock()) {
+	        if (!friends.remove(friendId)) {
+	            return false;
+	        }
+	        changes++;
+	        return true;
+	    }
+	}
+
+	/**
+	 * This method returns true if the named friend is in this profile's
+	 * list of friends.
+	 */
+	public boolean isFriend(String friend) {
+	    int friendId = ids.find(friend);
+		return friendId >= 0 && isFriend(friendId);
+	}
+
+	/**
+	 * This method returns true if the friend with the given id is in this
+	 * profile's list of friends.
+	 */
+	public boolean isFriend(int friendId) {
+	    synchronized (lock()) {
+	        return friends.contains(friendId);
 	    }
-		return true;
+	}
+
+	/** This method returns the number of friends of the profile. */
+	public int getFriendCount() {
+	    synchronized (lock()) {
+	        return friends.size();
+	    }
+	}
+
+	/**
+	 * This method returns the ids of this profile's friends, in the order
+	 * they were added.  The array is a copy, so it can be used while other
+	 * threads change the profile's friends.  The names belong to the ids
+	 * in the table the profile was created with.
+	 */
+	public int[] getFriendIds() {
+	    synchronized (lock()) {
+	        return friends.toArray();
+	    }
+	}
+
+	/**
+	 * This method returns how many times this profile's friends have
+	 * changed.  It only ever grows, so a result computed from the friends
+	 * is still good as long as the count is the same.
+	 */
+	public int getChangeCount() {
+		return changes;
 	}
 
 	/** 
 	 * This method returns an iterator over the list of friends 
-	 * associated with the profile.
+	 * associated with the profile, as they were when it was called.
 	 */ 
 	public Iterator<String> getFriends() {
-	    Iterator<String> friendsIterator = friends.iterator();
-		return friendsIterator;
+	    final int[] friendIds = getFriendIds();
+		return new Iterator<String>() {
+		    private int next;
+
+		    public boolean hasNext() {
+		        return next < friendIds.length;
+		    }
+
+		    public String next() {
+		        if (!hasNext()) {
+		            throw new NoSuchElementException();
+		        }
+		        return ids.nameOf(friendIds[next++]);
+		    }
+
+		    public void remove() {
+		        throw new UnsupportedOperationException();
+		    }
+		};
 	}
 	
 	/** 
@@ -120,9 +303,9 @@ public class FacePamphletProfile implements FacePamphletConstants {
 	 * would return the string: "Alice (coding): Don, Chelsea, Bob"
 	 */ 
 	public String toString() {
-	    String allFriends = "";
-	    for (String friend: friends) {
-	       allFriends += friend + ", "; 
+	    StringBuilder allFriends = new StringBuilder();
+	    for (int friendId : getFriendIds()) {
+	       allFriends.append(ids.nameOf(friendId)).append(", "); 
 	    }
 		return name + " (" + status + "): " + allFriends;
 	}
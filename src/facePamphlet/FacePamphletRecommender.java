@@ -0,0 +1,258 @@
+package facePamphlet;
+
+/*
+ * File: FacePamphletRecommender.java
+ * ----------------------------------
+ * This class suggests "people you may know": the profiles that share the
+ * most friends with a given profile without already being its friends.
+ * Candidates are counted by walking the friends of each friend, using an
+ * array indexed by id for the counts so that no map is involved, and the
+ * best k are picked with an insertion into a short sorted array.  Friends
+ * are walked fewest friends first, and the walk stops after
+ * MAX_VISITS friends of friends, so a profile with very popular friends
+ * gets an answer in bounded time that is still exact for all but the
+ * biggest of them.
+ *
+ * Suggestions are cached per profile.  Every profile counts how many
+ * times its friends have changed, which costs nothing more than an
+ * increment per change.  The suggestions of a profile depend only on its
+ * friends and their friends, so a cached answer records the count of the
+ * profile and the sum of the counts of its friends, and is still good as
+ * long as both are the same.  Counts only grow, so the sum can't come
+ * back to the same value once a friend has changed.  Checking an answer
+ * takes one look per friend, instead of one per friend of a friend to
+ * make a new one.
+ *
+ * Suggestions are made one at a time, but the database never waits for
+ * them: the counts live in the profiles, and the friends of each profile
+ * are copied out of it under its own lock.
+ */
+
+import java.util.*;
+
+public class FacePamphletRecommender {
+
+    /* How many friends of friends one suggestion may look at */
+    private static final int MAX_VISITS = 1000000;
+
+    /* The count given to the profile and its friends, which are skipped */
+    private static final int EXCLUDED = -1;
+
+    private FacePamphletDatabase database;
+    private ArrayList<Suggestions> cache = new ArrayList<Suggestions>();
+    private int[] counts = new int[0];
+
+    /**
+     * Creates a recommender over the profiles of the given database.
+     */
+    public FacePamphletRecommender(FacePamphletDatabase database) {
+        this.database = database;
+    }
+
+    /**
+     * Returns up to k profiles that are not friends of the named profile
+     * but share friends with it, those with the most mutual friends first.
+     * Profiles with the same number of mutual friends come in the order
+     * their names were given ids.
+     * @param name, String, the profile to make suggestions for.
+     * @param k, int, the largest number of suggestions.
+     * @return List<FacePamphletProfile>, the suggestions, or an empty list
+     * if there is no such profile.
+     */
+    public synchronized List<FacePamphletProfile> recommend(String name,
+            int k) {
+        FacePamphletProfile profile = database.getProfile(name);
+        List<FacePamphletProfile> result = new ArrayList<FacePamphletProfile>();
+        if (profile == null || k <= 0) {
+            return result;
+        }
+        int id = profile.getId();
+        int changes = profile.getChangeCount();
+        int[] friends = profile.getFriendIds();
+        long friendChanges = friendChanges(friends);
+        Suggestions cached = (id < cache.size()) ? cache.get(id) : null;
+        if (cached == null || cached.profile != profile || cached.k < k
+                || cached.changes != changes
+                || cached.friendChanges != friendChanges) {
+            cached = new Suggestions(profile, suggestions(id, friends, k), k,
+                    changes, friendChanges);
+            setCached(id, cached);
+        }
+        for (int i = 0; i < Math.min(k, cached.ids.length); i++) {
+            FacePamphletProfile suggestion = database.getProfile(cached.ids[i]);
+            if (suggestion != null) {
+                result.add(suggestion);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of friends two profiles have in common, or 0 if
+     * either profile doesn't exist.  The friends of the profile with fewer
+     * friends are looked up in the friend set of the other, so the time
+     * taken depends only on the smaller of the two.
+     */
+    public int mutualFriendCount(String name, String other) {
+        FacePamphletProfile a = database.getProfile(name);
+        FacePamphletProfile b = database.getProfile(other);
+        if (a == null || b == null) {
+            return 0;
+        }
+        if (a.getFriendCount() > b.getFriendCount()) {
+            FacePamphletProfile swap = a;
+            a = b;
+            b = swap;
+        }
+        int count = 0;
+        for (int friendId : a.getFriendIds()) {
+            if (b.isFriend(friendId)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the sum of the change counts of the given friends.
+     */
+    private long friendChanges(int[] friends) {
+        long sum = 0;
+        for (int friendId : friends) {
+            FacePamphletProfile friend = database.getProfile(friendId);
+            if (friend != null) {
+                sum += friend.getChangeCount();
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Counts the mutual friends of every friend of a friend of the profile
+     * and returns the ids of the best k.
+     */
+    private int[] suggestions(int id, int[] friends, int k) {
+        int[] byDegree = friendsByDegree(friends);
+        ensureCounts(database.getIdTable().size());
+        counts[id] = EXCLUDED;
+        for (int friendId : friends) {
+            counts[friendId] = EXCLUDED;
+        }
+        int[] touched = new int[16];
+        int touchedCount = 0;
+        int visits = 0;
+        for (int i = 0; i < byDegree.length && visits < MAX_VISITS; i++) {
+            FacePamphletProfile friend = database.getProfile(byDegree[i]);
+            if (friend == null) {
+                continue;
+            }
+            for (int candidate : friend.getFriendIds()) {
+                visits++;
+                ensureCounts(candidate + 1);
+                if (counts[candidate] == EXCLUDED) {
+                    continue;
+                }
+                if (counts[candidate]++ == 0) {
+                    if (touchedCount == touched.length) {
+                        touched = Arrays.copyOf(touched, touchedCount * 2);
+                    }
+                    touched[touchedCount++] = candidate;
+                }
+            }
+        }
+        int[] best = new int[Math.min(k, touchedCount)];
+        int count = 0;
+        for (int i = 0; i < touchedCount; i++) {
+            count = insert(best, count, touched[i]);
+        }
+        for (int i = 0; i < touchedCount; i++) {
+            counts[touched[i]] = 0;
+        }
+        counts[id] = 0;
+        for (int friendId : friends) {
+            counts[friendId] = 0;
+        }
+        return best;
+    }
+
+    /**
+     * Makes the count array big enough for the given number of ids.
+     */
+    private void ensureCounts(int size) {
+        if (counts.length < size) {
+            counts = Arrays.copyOf(counts, Math.max(size, 2 * counts.length));
+        }
+    }
+
+    /**
+     * Inserts a candidate into the best ones found so far, which are kept
+     * ordered by count and then by id, and returns the new number of them.
+     */
+    private int insert(int[] best, int count, int candidate) {
+        int j = count;
+        if (count == best.length) {
+            if (count == 0 || !better(candidate, best[count - 1])) {
+                return count;
+            }
+            j = count - 1;
+        } else {
+            count++;
+        }
+        while (j > 0 && better(candidate, best[j - 1])) {
+            best[j] = best[j - 1];
+            j--;
+        }
+        best[j] = candidate;
+        return count;
+    }
+
+    private boolean better(int a, int b) {
+        return counts[a] > counts[b] || (counts[a] == counts[b] && a < b);
+    }
+
+    /**
+     * Returns the given friends, those with the fewest friends first.
+     */
+    private int[] friendsByDegree(int[] friends) {
+        long[] keys = new long[friends.length];
+        for (int i = 0; i < friends.length; i++) {
+            FacePamphletProfile friend = database.getProfile(friends[i]);
+            int degree = (friend == null) ? 0 : friend.getFriendCount();
+            keys[i] = ((long) degree << 32) | friends[i];
+        }
+        Arrays.sort(keys);
+        int[] ids = new int[friends.length];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = (int) keys[i];
+        }
+        return ids;
+    }
+
+    private void setCached(int id, Suggestions suggestions) {
+        while (cache.size() <= id) {
+            cache.add(null);
+        }
+        cache.set(id, suggestions);
+    }
+
+    /**
+     * The best suggestions for one profile, as many as were asked for, and
+     * the change counts they were made from.
+     */
+    private static class Suggestions {
+        private final FacePamphletProfile profile;
+        private final int[] ids;
+        private final int k;
+        private final int changes;
+        private final long friendChanges;
+
+        Suggestions(FacePamphletProfile profile, int[] ids, int k,
+                int changes, long friendChanges) {
+            this.profile = profile;
+            this.ids = ids;
+            this.k = k;
+            this.changes = changes;
+            this.friendChanges = friendChanges;
+        }
+    }
+}
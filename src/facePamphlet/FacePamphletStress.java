@@ -0,0 +1,190 @@
+package facePamphlet;
+
+/*
+ * File: FacePamphletStress.java
+ * -----------------------------
+ * This program drives one FacePamphletDatabase from many threads at once
+ * and then checks that it is still consistent: every friendship is listed
+ * by both profiles, and no profile lists a friend that has been deleted.
+ * Each thread makes and ends friendships, both through the database and
+ * through the profiles, deletes profiles and adds them back, some already
+ * listing a friend, adds profiles with names never seen before, looks profiles up and
+ * finds chains of friends, all on a small set of names so that the
+ * threads keep running into each other.  It prints how many operations
+ * were done and exits with status 1 if the database is inconsistent.
+ *
+ * Usage: java facePamphlet.FacePamphletStress [threads [seconds [profiles]]]
+ */
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class FacePamphletStress {
+
+    private static final int DEFAULT_SECONDS = 5;
+    private static final int DEFAULT_PROFILES = 500;
+
+    /* The longest chain and the most time a chain search may take */
+    private static final int MAX_CHAIN = 6;
+    private static final int CHAIN_BUDGET_MILLIS = 10;
+
+    public static void main(String[] args) throws InterruptedException {
+        int threads = (args.length > 0) ? Integer.parseInt(args[0])
+                : Runtime.getRuntime().availableProcessors() * 2;
+        int seconds = (args.length > 1) ? Integer.parseInt(args[1])
+                : DEFAULT_SECONDS;
+        final int profiles = (args.length > 2) ? Integer.parseInt(args[2])
+                : DEFAULT_PROFILES;
+        final FacePamphletIdTable ids = new FacePamphletIdTable();
+        final FacePamphletDatabase database = new FacePamphletDatabase(ids);
+        final FacePamphletRecommender recommender =
+                new FacePamphletRecommender(database);
+        for (int i = 0; i < profiles; i++) {
+            database.addProfile(new FacePamphletProfile(name(i), ids));
+        }
+        final long deadline = System.nanoTime() + seconds * 1000000000L;
+        final AtomicLong operations = new AtomicLong();
+        final List<Throwable> errors =
+                Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final long seed = t;
+            workers[t] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        operations.addAndGet(work(database, recommender, ids,
+                                profiles, deadline, new Random(seed)));
+                    } catch (Throwable e) {
+                        errors.add(e);
+                    }
+                }
+            }, "stress-" + t);
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        int problems = check(database, ids);
+        System.out.printf("%d threads, %d operations in %d s (%.0f/s), "
+                + "%d profiles, %d friendships%n", threads, operations.get(),
+                seconds, operations.get() / (double) seconds,
+                database.getProfileCount(),
+                database.getGraph().getFriendshipCount());
+        for (Throwable e : errors) {
+            e.printStackTrace();
+        }
+        if (problems > 0 || !errors.isEmpty()) {
+            System.out.println("FAILED: " + problems + " inconsistencies, "
+                    + errors.size() + " errors");
+            System.exit(1);
+        }
+        System.out.println("OK: every friendship is symmetric");
+    }
+
+    /**
+     * Runs random operations until the deadline and returns how many
+     * were done.
+     */
+    private static long work(FacePamphletDatabase database,
+            FacePamphletRecommender recommender, FacePamphletIdTable ids,
+            int profiles, long deadline, Random random) {
+        long count = 0;
+        while (System.nanoTime() < deadline) {
+            String a = name(random.nextInt(profiles));
+            String b = name(random.nextInt(profiles));
+            int op = random.nextInt(100);
+            if (op < 40) {
+                try {
+                    database.addFriendship(a, b);
+                } catch (IllegalArgumentException e) {
+                    // One of them was deleted; another thread will add it back.
+                }
+            } else if (op < 60) {
+                database.removeFriendship(a, b);
+            } else if (op < 63) {
+                database.deleteProfile(a);
+            } else if (op < 66) {
+                if (!database.containsProfile(a)) {
+                    FacePamphletProfile profile = new FacePamphletProfile(a, ids);
+                    if (random.nextBoolean()) {
+                        profile.addFriend(b);
+                    }
+                    database.addProfile(profile);
+                }
+            } else if (op < 67) {
+                /*
+                 * Names past the first profiles get new ids while other
+                 * threads are searching, so chains are also asked for
+                 * between profiles newer than the last snapshot.
+                 */
+                String c = name(profiles + random.nextInt(profiles));
+                if (!database.containsProfile(c)) {
+                    database.addProfile(new FacePamphletProfile(c, ids));
+                }
+                try {
+                    database.addFriendship(a, c);
+                } catch (IllegalArgumentException e) {
+                    // a was deleted; the chain is still worth asking for.
+                }
+                database.shortestChain(b, c, MAX_CHAIN, CHAIN_BUDGET_MILLIS);
+            } else if (op < 69) {
+                database.shortestChain(a, b, MAX_CHAIN, CHAIN_BUDGET_MILLIS);
+            } else if (op < 70) {
+                recommender.recommend(a, 5);
+            } else if (op < 80) {
+                FacePamphletProfile profile = database.getProfile(a);
+                if (profile != null) {
+                    try {
+                        if (random.nextBoolean()) {
+                            profile.addFriend(b);
+                        } else {
+                            profile.removeFriend(b);
+                        }
+                    } catch (IllegalArgumentException e) {
+                        // b was deleted; another thread will add it back.
+                    }
+                }
+            } else {
+                FacePamphletProfile profile = database.getProfile(a);
+                if (profile != null) {
+                    profile.isFriend(b);
+                    profile.getFriendCount();
+                }
+            }
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of friendships that are listed by only one side
+     * or that name a profile that is not in the database.
+     */
+    private static int check(FacePamphletDatabase database,
+            FacePamphletIdTable ids) {
+        int problems = 0;
+        for (int id = 0; id < ids.size(); id++) {
+            FacePamphletProfile profile = database.getProfile(id);
+            if (profile == null) {
+                continue;
+            }
+            for (int friendId : profile.getFriendIds()) {
+                FacePamphletProfile friend = database.getProfile(friendId);
+                if (friend == null) {
+                    System.out.println(profile.getName()
+                            + " lists deleted friend " + ids.nameOf(friendId));
+                    problems++;
+                } else if (!friend.isFriend(id)) {
+                    System.out.println(profile.getName() + " lists "
+                            + friend.getName() + " but not the other way");
+                    problems++;
+                }
+            }
+        }
+        return problems;
+    }
+
+    private static String name(int i) {
+        return "User" + i;
+    }
+}